@@ -12,5 +12,16 @@ public class LongestPathReducer implements Reducer {
         }
         emitter.emit(key, max);
     }
+
+    @Override
+    public void reduce(String key, int[] values, int count, Emitter emitter) throws IOException {
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] > max) {
+                max = values[i];
+            }
+        }
+        emitter.emit(key, max);
+    }
 }
 
@@ -0,0 +1,9 @@
+/**
+ * A {@link Mapper} that can also read its input as raw bytes, skipping the decoding of every line
+ * into a String. Jobs prefer the byte form when a mapper has one.
+ */
+public interface ByteMapper extends Mapper {
+
+    /** A handler mapping the byte ranges of one map task to emitter; used by one thread only. */
+    MapInput.RangeHandler forTask(Emitter emitter);
+}
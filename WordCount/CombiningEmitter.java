@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Map-side combiner for one map task. Emits go into a buffer owned by the task, so they take no
+ * locks; the values of each key are folded into one partial result with the combiner (any
+ * {@link Reducer} whose result can be reduced again, such as a sum or a maximum). The partials are
+ * passed on to the shuffle when the buffer holds too many keys and when the task calls
+ * {@link #flush()}, so the shuffle sees about one value per distinct key per task instead of one
+ * per emit. Not thread-safe: use one per task.
+ */
+public class CombiningEmitter implements Emitter {
+
+    public static final int DEFAULT_MAX_KEYS = 10_000;
+    // Values a key may collect before they are folded into one.
+    private static final int MAX_VALUES_PER_KEY = 64;
+
+    private final Reducer combiner;
+    private final Emitter shuffle;
+    private final int maxKeys;
+    private final IntValueStore buffer = new IntValueStore();
+
+    public CombiningEmitter(Reducer combiner, Emitter shuffle, int maxKeys) {
+        this.combiner = combiner;
+        this.shuffle = shuffle;
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public void emit(String key, int value) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        try {
+            if (buffer.add(key, value) >= MAX_VALUES_PER_KEY) {
+                buffer.fold(key, combiner, shuffle);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error combining key " + key, e);
+        }
+        if (buffer.size() >= maxKeys) {
+            flush();
+        }
+    }
+
+    /** Passes every buffered partial on to the shuffle and empties the buffer. */
+    public void flush() {
+        try {
+            buffer.forEach((key, values, count) -> combiner.reduce(key, values, count, shuffle));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error combining", e);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the input files of a job and plans its map tasks. An input argument may be a file, a
+ * directory (every regular file below it) or a glob such as {@code logs/**.txt}; directories are
+ * walked in parallel. Planning cuts large files into {@link InputSplit}s and packs small ones
+ * into {@link PackedSplit}s of about equal size, so neither one huge file nor a swarm of tiny
+ * ones leaves workers idle or buried in per-task overhead.
+ */
+public class InputFiles {
+
+    /** A found input file with the size seen while walking. */
+    public record Entry(Path path, long size) {
+    }
+
+    // Packs are no smaller than this, however few bytes each worker gets.
+    private static final long MIN_PACK_SIZE = 1024 * 1024;
+    // Tasks per worker when packing, so faster workers can take up the slack.
+    private static final int TASKS_PER_WORKER = 4;
+    // Listing is mostly waiting on the file system, so walk with more threads than cores.
+    private static final int WALK_PARALLELISM = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private InputFiles() {
+    }
+
+    /** Regular files named by one argument, sorted by path; empty if there are none. */
+    public static List<Entry> find(String argument) throws IOException {
+        int glob = firstGlobChar(argument);
+        Path base;
+        PathMatcher matcher;
+        boolean recursive = true;
+        if (glob < 0) {
+            base = Paths.get(argument).toAbsolutePath();
+            matcher = null;
+        } else {
+            // Walk from the deepest directory without glob characters and match the rest against
+            // paths relative to it, so the pattern never contains the separators of base.
+            if (File.separatorChar == '\\') {
+                argument = argument.replace('\\', '/');
+            }
+            int slash = argument.lastIndexOf('/', glob);
+            String dir = slash < 0 ? "." : argument.substring(0, slash + 1);
+            base = Paths.get(dir).toAbsolutePath().normalize();
+            String rest = argument.substring(slash + 1);
+            // Glob patterns take '/' as the separator on every platform.
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+            // Without ** or a directory part the pattern only matches entries of base itself.
+            recursive = rest.contains("**") || rest.contains("/");
+        }
+
+        List<Entry> found = new ArrayList<>();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(base, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return found;
+        }
+        if (attributes.isRegularFile()) {
+            found.add(new Entry(base, attributes.size()));
+        } else if (attributes.isDirectory()) {
+            ForkJoinPool walkers = new ForkJoinPool(WALK_PARALLELISM);
+            try {
+                found = walkers.invoke(new Walk(base, base, matcher, recursive));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                walkers.shutdown();
+            }
+        }
+        found.sort(Comparator.comparing(entry -> entry.path().toString()));
+        return found;
+    }
+
+    /** Sizes of already known files, for callers that do not walk. */
+    public static List<Entry> of(List<Path> files) throws IOException {
+        List<Entry> entries = new ArrayList<>(files.size());
+        for (Path file : files) {
+            entries.add(new Entry(file, Files.size(file)));
+        }
+        return entries;
+    }
+
+    /**
+     * Map tasks for the files: files of at least the pack size are cut into splits of splitSize,
+     * smaller ones are packed together, largest first into the emptiest pack. The pack size aims
+     * at a few tasks per worker and stays between 1 MiB and splitSize.
+     */
+    public static List<MapInput> plan(List<Entry> files, long splitSize, int workers) throws IOException {
+        long total = 0;
+        for (Entry file : files) {
+            total += file.size();
+        }
+        long packSize = Math.min(splitSize,
+                Math.max(MIN_PACK_SIZE, total / ((long) Math.max(1, workers) * TASKS_PER_WORKER)));
+
+        List<MapInput> tasks = new ArrayList<>();
+        List<Path> large = new ArrayList<>();
+        List<Entry> small = new ArrayList<>();
+        long smallBytes = 0;
+        for (Entry file : files) {
+            if (file.size() >= packSize) {
+                large.add(file.path());
+            } else if (file.size() > 0) {
+                small.add(file);
+                smallBytes += file.size();
+            }
+        }
+        tasks.addAll(InputSplit.split(large, splitSize));
+
+        if (!small.isEmpty()) {
+            int packs = (int) Math.max(1, (smallBytes + packSize - 1) / packSize);
+            PriorityQueue<PackedSplit> emptiest = new PriorityQueue<>(
+                    Comparator.comparingLong(PackedSplit::getLength));
+            for (int i = 0; i < packs; i++) {
+                emptiest.add(new PackedSplit());
+            }
+            small.sort(Comparator.comparingLong(Entry::size).reversed());
+            for (Entry file : small) {
+                PackedSplit pack = emptiest.poll();
+                pack.add(file.path(), file.size());
+                emptiest.add(pack);
+            }
+            for (PackedSplit pack : emptiest) {
+                if (!pack.getFiles().isEmpty()) {
+                    tasks.add(pack);
+                }
+            }
+        }
+        // Longest tasks first, so the last ones to finish are short.
+        tasks.sort(Comparator.comparingLong(MapInput::getLength).reversed());
+        return tasks;
+    }
+
+    private static int firstGlobChar(String argument) {
+        for (int i = 0; i < argument.length(); i++) {
+            if ("*?[{".indexOf(argument.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lists one directory, forking a task for each subdirectory. Links to regular files are taken;
+     * links to directories are not walked, so a link cycle cannot make the walk endless.
+     */
+    private static final class Walk extends RecursiveTask<List<Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path base;
+        private final transient Path dir;
+        private final transient PathMatcher matcher;
+        private final boolean recursive;
+
+        Walk(Path base, Path dir, PathMatcher matcher, boolean recursive) {
+            this.base = base;
+            this.dir = dir;
+            this.matcher = matcher;
+            this.recursive = recursive;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            List<Entry> found = new ArrayList<>();
+            List<Walk> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (!recursive) {
+                            continue;
+                        }
+                        Walk walk = new Walk(base, entry, matcher, true);
+                        walk.fork();
+                        subdirectories.add(walk);
+                        continue;
+                    }
+                    if (attributes.isSymbolicLink()) {
+                        try {
+                            attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                        } catch (IOException e) {
+                            continue; // a dangling link
+                        }
+                    }
+                    if (attributes.isRegularFile() && (matcher == null || matcher.matches(base.relativize(entry)))) {
+                        found.add(new Entry(entry, attributes.size()));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error listing " + dir, e);
+            }
+            for (Walk walk : subdirectories) {
+                found.addAll(walk.join());
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A byte range of an input file, so that one large file can be mapped by many workers. Splits
+ * are cut at fixed sizes and lines are assigned by their first byte: a split reads every line
+ * that starts inside it, through to that line's end even past the split, and skips a line it
+ * begins in the middle of. Line ends are \n, \r or \r\n, as for BufferedReader.readLine.
+ * The lines can also be read undecoded from a memory mapping of the file.
+ */
+public class InputSplit implements MapInput {
+
+    public static final long DEFAULT_SPLIT_SIZE = 64L * 1024 * 1024;
+    private static final int READ_BUFFER = 64 * 1024;
+    // Mapped past the split for its last line; longer lines take another mapping.
+    private static final long LINE_SLACK = 64 * 1024;
+
+    private final Path file;
+    private final long start;
+    private final long length;
+
+    public InputSplit(Path file, long start, long length) {
+        this.file = file;
+        this.start = start;
+        this.length = length;
+    }
+
+    /** Cuts every file into splits of at most splitSize bytes; an empty file gets none. */
+    public static List<InputSplit> split(List<Path> files, long splitSize) throws IOException {
+        if (splitSize <= 0) {
+            throw new IllegalArgumentException("Split size must be positive");
+        }
+        List<InputSplit> splits = new ArrayList<>();
+        for (Path file : files) {
+            long size = Files.size(file);
+            for (long offset = 0; offset < size; offset += splitSize) {
+                splits.add(new InputSplit(file, offset, Math.min(splitSize, size - offset)));
+            }
+        }
+        return splits;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    /** Hands every line starting in this split, decoded as UTF-8, to the handler. */
+    @Override
+    public void forEachLine(LineHandler handler) throws IOException {
+        long end = start + length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+            buffer.flip();
+            long position = start; // file offset of the next byte in the buffer
+            boolean atLineStart = true;
+            if (start > 0) {
+                // The line at start belongs here only if the previous byte ended a line.
+                position = start - 1;
+                int previous = next(channel, buffer, position);
+                position++;
+                atLineStart = previous == '\n' || (previous == '\r' && peek(channel, buffer, position) != '\n');
+            }
+
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            long lineStart = position;
+            boolean skipping = !atLineStart;
+            while (skipping || position > lineStart || position < end) {
+                int b = next(channel, buffer, position);
+                if (b < 0) {
+                    break;
+                }
+                position++;
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && peek(channel, buffer, position) == '\n') {
+                        buffer.get();
+                        position++;
+                    }
+                    if (!skipping) {
+                        handler.line(file, lineStart, new String(line, 0, lineLength, StandardCharsets.UTF_8));
+                    }
+                    skipping = false;
+                    lineLength = 0;
+                    lineStart = position;
+                    continue;
+                }
+                if (!skipping) {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, lineLength * 2);
+                    }
+                    line[lineLength++] = (byte) b;
+                }
+            }
+            // The last line of the file may have no line end.
+            if (!skipping && lineLength > 0) {
+                handler.line(file, lineStart, new String(line, 0, lineLength, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Memory-maps the split, from the byte before it plus some slack for the end of its last line,
+     * and hands the lines starting in it to the handler as one range. A last line running past the
+     * slack is mapped again with more; a split or line too long to map at once is handed over line
+     * by line instead.
+     */
+    @Override
+    public void forEachRange(RangeHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long mapStart = Math.max(0, start - 1);
+            long end = Math.min(start + length, size);
+            if (end <= start) {
+                return;
+            }
+            int from = (int) (start - mapStart);
+            int to = (int) (end - mapStart);
+            for (long slack = LINE_SLACK; ; slack *= 4) {
+                long mapLength = Math.min(size - mapStart, end - mapStart + slack);
+                if (mapLength > Integer.MAX_VALUE) {
+                    forEachLineAsRange(handler);
+                    return;
+                }
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapLength);
+                if (slack == LINE_SLACK && start > 0 && !isLineEnd(data.get(0))) {
+                    // Skip the line begun before the split; the range may start on its line end.
+                    while (from < to && !isLineEnd(data.get(from))) {
+                        from++;
+                    }
+                }
+                if (from >= to) {
+                    return;
+                }
+                if (to == end - mapStart && isLineEnd(data.get(to - 1))) {
+                    handler.range(file, data, from, to);
+                    return;
+                }
+                while (to < mapLength && !isLineEnd(data.get(to))) {
+                    to++;
+                }
+                if (to < mapLength || mapStart + mapLength == size) {
+                    handler.range(file, data, from, to);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void forEachLineAsRange(RangeHandler handler) throws IOException {
+        forEachLine((lineFile, offset, line) -> {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            handler.range(lineFile, ByteBuffer.wrap(bytes), 0, bytes.length);
+        });
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /** Reads the byte at position, which must be the buffer's next byte; -1 at the end of the file. */
+    private static int next(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (!buffer.hasRemaining() && !fill(channel, buffer, position)) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private static int peek(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (!buffer.hasRemaining() && !fill(channel, buffer, position)) {
+            return -1;
+        }
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer, position);
+        buffer.flip();
+        return read > 0;
+    }
+
+    @Override
+    public String toString() {
+        return file + "[" + start + "+" + length + "]";
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Intermediate store for int-valued emits: an open-addressing table from key to a growable int
+ * array of that key's values. Adding a value allocates nothing except when a table or a value
+ * array has to grow, and a value costs 4 bytes instead of a boxed Integer in a list. Not
+ * thread-safe; {@link StripedIntValueStore} shares one between threads.
+ */
+public class IntValueStore {
+
+    /** Receives one key with its values, which are {@code values[0..count)}. */
+    @FunctionalInterface
+    public interface KeyValues {
+        void accept(String key, int[] values, int count) throws IOException;
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_VALUES = 2;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[][] values = new int[INITIAL_CAPACITY][];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /** Appends a value to the key's values and returns how many the key now has. */
+    public int add(String key, int value) {
+        int hash = hash(key);
+        int slot = slotOf(key, hash);
+        if (keys[slot] == null) {
+            if ((size + 1) * 4L > keys.length * 3L) {
+                grow();
+                slot = slotOf(key, hash);
+            }
+            keys[slot] = key;
+            hashes[slot] = hash;
+            values[slot] = new int[INITIAL_VALUES];
+            size++;
+        }
+        return append(slot, value);
+    }
+
+    /**
+     * Replaces the values of a key with what the combiner makes of them. Values the combiner emits
+     * for other keys go to {@code others}.
+     */
+    public void fold(String key, Reducer combiner, Emitter others) throws IOException {
+        int slot = slotOf(key, hash(key));
+        if (keys[slot] == null) {
+            return;
+        }
+        int[] current = values[slot];
+        int count = counts[slot];
+        // The combiner reads the old array while its results collect in a fresh one.
+        values[slot] = new int[INITIAL_VALUES];
+        counts[slot] = 0;
+        int target = slot;
+        combiner.reduce(key, current, count, (emittedKey, value) -> {
+            if (emittedKey.equals(key)) {
+                append(target, value);
+            } else {
+                others.emit(emittedKey, value);
+            }
+        });
+    }
+
+    public void forEach(KeyValues action) throws IOException {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                action.accept(keys[slot], values[slot], counts[slot]);
+            }
+        }
+    }
+
+    /** Number of distinct keys. */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    /** Spreads the String hash so that both the low bits (slots) and high bits (stripes) vary. */
+    static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int append(int slot, int value) {
+        int[] slotValues = values[slot];
+        int count = counts[slot];
+        if (count == slotValues.length) {
+            slotValues = Arrays.copyOf(slotValues, count * 2);
+            values[slot] = slotValues;
+        }
+        slotValues[count] = value;
+        counts[slot] = count + 1;
+        return count + 1;
+    }
+
+    private int slotOf(String key, int hash) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null && (hashes[slot] != hash || !keys[slot].equals(key))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[][] oldValues = values;
+        int[] oldCounts = counts;
+        int capacity = oldKeys.length * 2;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new int[capacity][];
+        counts = new int[capacity];
+        int mask = capacity - 1;
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldKeys[old] == null) {
+                continue;
+            }
+            int slot = oldHashes[old] & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[old];
+            hashes[slot] = oldHashes[old];
+            values[slot] = oldValues[old];
+            counts[slot] = oldCounts[old];
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/** The input of one map task: a range of one file or a pack of small files. */
+public interface MapInput {
+
+    /** Receives a line, its file and the byte offset in that file where it starts. */
+    @FunctionalInterface
+    interface LineHandler {
+        void line(Path file, long offset, String line) throws IOException;
+    }
+
+    /**
+     * Receives raw UTF-8 bytes {@code data[from..to)} of a file. A range holds whole lines: it
+     * starts at the start of a line or on a line end and stops at a line end or the end of the file.
+     */
+    @FunctionalInterface
+    interface RangeHandler {
+        void range(Path file, ByteBuffer data, int from, int to) throws IOException;
+    }
+
+    /** Bytes of input, to balance tasks by. */
+    long getLength();
+
+    /** Hands every line of this input, decoded as UTF-8, to the handler. */
+    void forEachLine(LineHandler handler) throws IOException;
+
+    /** Hands the same lines as {@link #forEachLine} to the handler as undecoded byte ranges. */
+    void forEachRange(RangeHandler handler) throws IOException;
+}
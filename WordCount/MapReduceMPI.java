@@ -0,0 +1,322 @@
+import mpi.MPI;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a {@link Mapper}/{@link Reducer} pair across the ranks of an MPI job. Input files are cut
+ * into {@link InputSplit}s, which are dealt out to the ranks by size; each rank maps its splits
+ * with a {@link CombiningEmitter} per map task and combines the partials of every key again with
+ * the reducer, so at most one partial value per distinct key leaves a rank. The shuffle sends
+ * each key to the rank owning its hash partition (Alltoall for the sizes, Alltoallv for the
+ * pairs), every rank reduces its partition, and the root gathers the results and writes them.
+ * The reducer must be usable as a combiner: reducing partial results gives the same answer as
+ * reducing all values at once, as it does for sums and maxima.
+ */
+public class MapReduceMPI {
+
+    public static void main(String[] args) throws Exception {
+        String[] appArgs = MPI.Init(args);
+        int rank = MPI.COMM_WORLD.Rank();
+        int world = MPI.COMM_WORLD.Size();
+
+        boolean keepMax = false;
+        int workers = 1;
+        long splitSize = InputSplit.DEFAULT_SPLIT_SIZE;
+        List<String> positional = new ArrayList<>();
+        for (String arg : appArgs) {
+            if (arg.equals("--keep-max")) {
+                keepMax = true;
+            } else if (arg.startsWith("--split-size=")) {
+                splitSize = Long.parseLong(arg.substring("--split-size=".length()));
+            } else if (arg.startsWith("--workers=")) {
+                workers = Math.max(1, Integer.parseInt(arg.substring("--workers=".length())));
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() < 4) {
+            if (rank == 0) {
+                printUsage();
+            }
+            MPI.Finalize();
+            return;
+        }
+
+        Mapper mapper = (Mapper) Class.forName(positional.get(0)).getDeclaredConstructor().newInstance();
+        Reducer reducer = (Reducer) Class.forName(positional.get(1)).getDeclaredConstructor().newInstance();
+        Path output = Paths.get(positional.get(2)).toAbsolutePath();
+        List<Path> inputs = new ArrayList<>();
+        for (String name : positional.subList(3, positional.size())) {
+            Path input = Paths.get(name).toAbsolutePath();
+            if (!Files.isRegularFile(input)) {
+                if (rank == 0) {
+                    System.err.println("[mapreduce] Skipping non-regular file: " + input);
+                }
+                continue;
+            }
+            inputs.add(input);
+        }
+        if (inputs.isEmpty()) {
+            if (rank == 0) {
+                System.err.println("[mapreduce] No valid input files. nothing to do");
+            }
+            MPI.Finalize();
+            return;
+        }
+
+        double start = MPI.Wtime();
+        List<InputSplit> mine = assignSplits(InputSplit.split(inputs, splitSize), rank, world);
+        Map<String, Integer> combined = null;
+        Exception mapFailure = null;
+        try {
+            combined = mapAndCombine(mapper, reducer, mine, workers);
+        } catch (IOException | RuntimeException e) {
+            mapFailure = e;
+            System.err.printf("[mapreduce] Rank %d: map phase failed: %s%n", rank, e);
+        }
+        // Every rank must learn of a failure before the shuffle, or the others would wait in
+        // Alltoall for a rank that never gets there.
+        int[] failed = {mapFailure == null ? 0 : 1};
+        int[] failedRanks = new int[1];
+        MPI.COMM_WORLD.Allreduce(failed, 0, failedRanks, 0, 1, MPI.INT, MPI.SUM);
+        if (failedRanks[0] > 0) {
+            if (rank == 0) {
+                System.err.printf("[mapreduce] Map phase failed on %d rank(s); no output written%n", failedRanks[0]);
+            }
+            MPI.Finalize();
+            if (mapFailure != null) {
+                throw mapFailure;
+            }
+            return;
+        }
+        IntValueStore partition = shuffle(combined, world);
+        Map<String, Integer> reduced = new HashMap<>();
+        partition.forEach((key, values, count) -> reduce(reducer, key, values, count, reduced));
+        System.out.printf("[mapreduce] Rank %d mapped %d split(s), sent %d key(s), reduced %d key(s)%n", rank,
+                mine.size(), combined.size(), reduced.size());
+
+        Map<String, Integer> results = gather(reduced, world);
+        if (rank == 0) {
+            writeResults(output, results, keepMax);
+            System.out.printf("[mapreduce] Done. %d key(s) from %d rank(s) in %.2f s, written to %s%n",
+                    results.size(), world, MPI.Wtime() - start, output);
+        }
+        MPI.Finalize();
+    }
+
+    /** Largest splits first, each to the least loaded rank; every rank computes the same assignment. */
+    private static List<InputSplit> assignSplits(List<InputSplit> splits, int rank, int world) {
+        List<InputSplit> bySize = new ArrayList<>(splits);
+        bySize.sort(Comparator.comparingLong(InputSplit::getLength).reversed()
+                .thenComparing(split -> split.getFile().toString()).thenComparingLong(InputSplit::getStart));
+        long[] load = new long[world];
+        List<InputSplit> mine = new ArrayList<>();
+        for (InputSplit split : bySize) {
+            int target = 0;
+            for (int r = 1; r < world; r++) {
+                if (load[r] < load[target]) {
+                    target = r;
+                }
+            }
+            load[target] += split.getLength();
+            if (target == rank) {
+                mine.add(split);
+            }
+        }
+        return mine;
+    }
+
+    private static Map<String, Integer> mapAndCombine(Mapper mapper, Reducer reducer, List<InputSplit> splits,
+            int workers) throws IOException, InterruptedException {
+        StripedIntValueStore intermediate = new StripedIntValueStore(workers);
+        Emitter mapEmitter = (key, value) -> {
+            if (key == null || key.isEmpty()) {
+                return;
+            }
+            intermediate.add(key, value);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (InputSplit split : splits) {
+                tasks.add(executor.submit(() -> {
+                    // Each task folds its own emits, so the shared store holds partials, not tokens.
+                    CombiningEmitter local = new CombiningEmitter(reducer, mapEmitter,
+                            CombiningEmitter.DEFAULT_MAX_KEYS);
+                    runMapperOnSplit(mapper, split, local);
+                    local.flush();
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IllegalStateException("Map task failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        Map<String, Integer> combined = new HashMap<>();
+        intermediate.forEach((key, values, count) -> reduce(reducer, key, values, count, combined));
+        return combined;
+    }
+
+    private static void runMapperOnSplit(Mapper mapper, InputSplit split, Emitter emitter) {
+        try {
+            if (mapper instanceof ByteMapper bytes) {
+                // Raw bytes, without a String per line or a key the mapper never reads.
+                split.forEachRange(bytes.forTask(emitter));
+                return;
+            }
+            split.forEachLine((file, offset, line) -> mapper.map(file + "@" + offset, line, emitter));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + split, e);
+        }
+    }
+
+    private static void reduce(Reducer reducer, String key, int[] values, int count, Map<String, Integer> results) {
+        try {
+            reducer.reduce(key, values, count, results::put);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reducing key " + key, e);
+        }
+    }
+
+    /** Sends every pair to the rank owning its key and returns the values this rank received per key. */
+    private static IntValueStore shuffle(Map<String, Integer> pairs, int world) throws IOException {
+        ByteArrayOutputStream[] outgoing = new ByteArrayOutputStream[world];
+        DataOutputStream[] writers = new DataOutputStream[world];
+        for (int r = 0; r < world; r++) {
+            outgoing[r] = new ByteArrayOutputStream();
+            writers[r] = new DataOutputStream(outgoing[r]);
+        }
+        for (Map.Entry<String, Integer> pair : pairs.entrySet()) {
+            writePair(writers[partition(pair.getKey(), world)], pair.getKey(), pair.getValue());
+        }
+
+        int[] sendCounts = new int[world];
+        int[] sendOffsets = new int[world];
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (int r = 0; r < world; r++) {
+            sendOffsets[r] = all.size();
+            sendCounts[r] = outgoing[r].size();
+            outgoing[r].writeTo(all);
+        }
+        int[] receiveCounts = new int[world];
+        MPI.COMM_WORLD.Alltoall(sendCounts, 0, 1, MPI.INT, receiveCounts, 0, 1, MPI.INT);
+        int[] receiveOffsets = offsets(receiveCounts);
+        byte[] received = new byte[receiveOffsets[world - 1] + receiveCounts[world - 1]];
+        MPI.COMM_WORLD.Alltoallv(all.toByteArray(), 0, sendCounts, sendOffsets, MPI.BYTE,
+                received, 0, receiveCounts, receiveOffsets, MPI.BYTE);
+
+        IntValueStore partition = new IntValueStore();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(received));
+        while (in.available() > 0) {
+            partition.add(readKey(in), in.readInt());
+        }
+        return partition;
+    }
+
+    /** Collects every rank's reduced pairs on rank 0; other ranks get an empty map. */
+    private static Map<String, Integer> gather(Map<String, Integer> reduced, int world) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Map.Entry<String, Integer> pair : reduced.entrySet()) {
+            writePair(out, pair.getKey(), pair.getValue());
+        }
+        int[] counts = new int[world];
+        MPI.COMM_WORLD.Gather(new int[] {bytes.size()}, 0, 1, MPI.INT, counts, 0, 1, MPI.INT, 0);
+        int[] offsets = offsets(counts);
+        byte[] all = new byte[MPI.COMM_WORLD.Rank() == 0 ? offsets[world - 1] + counts[world - 1] : 0];
+        MPI.COMM_WORLD.Gatherv(bytes.toByteArray(), 0, bytes.size(), MPI.BYTE, all, 0, counts, offsets, MPI.BYTE, 0);
+
+        Map<String, Integer> results = new TreeMap<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(all));
+        while (in.available() > 0) {
+            results.put(readKey(in), in.readInt());
+        }
+        return results;
+    }
+
+    private static int partition(String key, int world) {
+        return (key.hashCode() & Integer.MAX_VALUE) % world;
+    }
+
+    // Keys are written as length plus UTF-8 rather than writeUTF, which stops at 64 KB (long lines as keys).
+    private static void writePair(DataOutputStream out, String key, int value) throws IOException {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt(value);
+    }
+
+    private static String readKey(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] offsets(int[] counts) {
+        int[] offsets = new int[counts.length];
+        for (int i = 1; i < counts.length; i++) {
+            offsets[i] = offsets[i - 1] + counts[i - 1];
+        }
+        return offsets;
+    }
+
+    private static void writeResults(Path outputFile, Map<String, Integer> results, boolean keepMax)
+            throws IOException {
+        int maxValue = Integer.MIN_VALUE;
+        for (Integer value : results.values()) {
+            maxValue = Math.max(maxValue, value);
+        }
+
+        Path parent = outputFile.getParent();
+        if (parent != null && !Files.exists(parent)) {
+            Files.createDirectories(parent);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Integer> entry : results.entrySet()) {
+                if (keepMax && entry.getValue() != maxValue) {
+                    continue;
+                }
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(Integer.toString(entry.getValue()));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: mpirun -np P java -cp WordCount:LongestPath MapReduceMPI [--workers=N]"
+                + " [--split-size=BYTES] [--keep-max] <mapper_class> <reducer_class> <output_file> <input_file1> [input_file2]");
+        System.err.println("  e.g. MapReduceMPI WordCountMapper WordCountReducer counts.txt corpus/*.txt");
+        System.err.println("       MapReduceMPI --keep-max LongestPathMapper LongestPathReducer longest.txt paths.txt");
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Many small files mapped as one task, so a directory of tiny files costs a task per pack rather
+ * than per file. The files are read whole with asynchronous reads issued a few files ahead, so the
+ * next files are already coming off the disk while the current one is being mapped.
+ */
+public class PackedSplit implements MapInput {
+
+    // Reads in flight ahead of the file being mapped, at most this many files and bytes.
+    private static final int PREFETCH_FILES = 8;
+    private static final long PREFETCH_BYTES = 8L * 1024 * 1024;
+
+    private final List<Path> files = new ArrayList<>();
+    private final List<Long> sizes = new ArrayList<>();
+    private long length;
+
+    public void add(Path file, long size) {
+        files.add(file);
+        sizes.add(size);
+        length += size;
+    }
+
+    public List<Path> getFiles() {
+        return files;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void forEachLine(LineHandler handler) throws IOException {
+        forEachFile((file, data) -> forEachLine(file, data, handler));
+    }
+
+    /** Hands each file whole, as one range. */
+    @Override
+    public void forEachRange(RangeHandler handler) throws IOException {
+        forEachFile((file, data) -> handler.range(file, ByteBuffer.wrap(data), 0, data.length));
+    }
+
+    @FunctionalInterface
+    private interface FileHandler {
+        void file(Path file, byte[] data) throws IOException;
+    }
+
+    private void forEachFile(FileHandler handler) throws IOException {
+        Deque<CompletableFuture<byte[]>> reads = new ArrayDeque<>();
+        int next = 0;
+        long bytesAhead = 0;
+        for (int i = 0; i < files.size(); i++) {
+            while (next < files.size() && (reads.isEmpty()
+                    || (reads.size() < PREFETCH_FILES && bytesAhead + sizes.get(next) <= PREFETCH_BYTES))) {
+                bytesAhead += sizes.get(next);
+                reads.add(readAll(files.get(next++)));
+            }
+            byte[] data = await(reads.poll(), files.get(i));
+            bytesAhead -= sizes.get(i);
+            handler.file(files.get(i), data);
+        }
+    }
+
+    /** Splits a whole file's bytes into lines the way {@link InputSplit} and BufferedReader.readLine do. */
+    static void forEachLine(Path file, byte[] data, LineHandler handler) throws IOException {
+        int lineStart = 0;
+        int i = 0;
+        while (i < data.length) {
+            byte b = data[i];
+            if (b != '\n' && b != '\r') {
+                i++;
+                continue;
+            }
+            handler.line(file, lineStart, new String(data, lineStart, i - lineStart, StandardCharsets.UTF_8));
+            i++;
+            if (b == '\r' && i < data.length && data[i] == '\n') {
+                i++;
+            }
+            lineStart = i;
+        }
+        if (lineStart < data.length) {
+            handler.line(file, lineStart, new String(data, lineStart, data.length - lineStart, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static CompletableFuture<byte[]> readAll(Path file) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException(file + " is too large to pack");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            channel.read(buffer, 0, buffer, new CompletionHandler<Integer, ByteBuffer>() {
+                @Override
+                public void completed(Integer read, ByteBuffer target) {
+                    if (read >= 0 && target.hasRemaining()) {
+                        channel.read(target, target.position(), target, this);
+                        return;
+                    }
+                    closeQuietly(channel);
+                    // A file that shrank since it was opened yields what is left.
+                    byte[] data = target.array();
+                    result.complete(target.hasRemaining() ? Arrays.copyOf(data, target.position()) : data);
+                }
+
+                @Override
+                public void failed(Throwable error, ByteBuffer target) {
+                    closeQuietly(channel);
+                    result.completeExceptionally(error);
+                }
+            });
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> read, Path file) throws IOException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + file, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Error reading " + file, e.getCause());
+        }
+    }
+
+    private static void closeQuietly(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing useful to do
+        }
+    }
+
+    @Override
+    public String toString() {
+        return files.size() + " packed file(s), " + length + " bytes";
+    }
+}
@@ -1,6 +1,25 @@
 import java.io.IOException;
+import java.util.AbstractList;
 
 public interface Reducer {
 
     void reduce(String key, Iterable<Integer> values, Emitter emitter) throws IOException;
+
+    /**
+     * Reduces {@code values[0..count)}. The default hands a boxing view of them to
+     * {@link #reduce(String, Iterable, Emitter)}; reducers override it to skip the boxing.
+     */
+    default void reduce(String key, int[] values, int count, Emitter emitter) throws IOException {
+        reduce(key, new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return values[index];
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        }, emitter);
+    }
 }
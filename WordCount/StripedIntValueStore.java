@@ -0,0 +1,52 @@
+import java.io.IOException;
+
+/**
+ * {@link IntValueStore} shared by many map threads: keys are spread over independently locked
+ * stripes, so threads emitting different keys rarely wait for each other.
+ */
+public class StripedIntValueStore {
+
+    private final IntValueStore[] stripes;
+    private final int shift;
+
+    public StripedIntValueStore(int threads) {
+        // A few stripes per thread keep the chance of two threads meeting on one stripe low.
+        int count = Integer.highestOneBit(Math.max(1, threads * 4 - 1)) << 1;
+        stripes = new IntValueStore[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new IntValueStore();
+        }
+        shift = Integer.SIZE - Integer.numberOfTrailingZeros(count);
+    }
+
+    public void add(String key, int value) {
+        IntValueStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.add(key, value);
+        }
+    }
+
+    /** Visits every key; call only once the threads adding to the store have finished. */
+    public void forEach(IntValueStore.KeyValues action) throws IOException {
+        for (IntValueStore stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach(action);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (IntValueStore stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private IntValueStore stripeOf(String key) {
+        // High bits pick the stripe; the stripe's table uses the low bits.
+        return stripes[IntValueStore.hash(key) >>> shift];
+    }
+}
@@ -1,17 +1,12 @@
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -20,33 +15,65 @@ public class WordCountJob {
 
     private final Mapper mapper;
     private final Reducer reducer;
+    private final Reducer combiner;
 
     public WordCountJob(Mapper mapper, Reducer reducer) {
+        this(mapper, reducer, null);
+    }
+
+    /**
+     * With a combiner, each map task pre-aggregates its own emits and hands the shuffle one
+     * partial per key (see {@link CombiningEmitter}). The reducer itself usually works as the combiner.
+     */
+    public WordCountJob(Mapper mapper, Reducer reducer, Reducer combiner) {
         this.mapper = mapper;
         this.reducer = reducer;
+        this.combiner = combiner;
     }
 
     public void run(List<Path> inputFiles, Path outputFile, int numWorkers)
             throws IOException, InterruptedException {
+        run(inputFiles, outputFile, numWorkers, InputSplit.DEFAULT_SPLIT_SIZE);
+    }
+
+    /** Files larger than splitSize are cut into byte-range splits, small files are packed together. */
+    public void run(List<Path> inputFiles, Path outputFile, int numWorkers, long splitSize)
+            throws IOException, InterruptedException {
 
         if (inputFiles == null || inputFiles.isEmpty()) {
             throw new IllegalArgumentException("No input files provided");
         }
+        runSplits(InputFiles.plan(InputFiles.of(inputFiles), splitSize, numWorkers), outputFile, numWorkers);
+    }
 
-        ConcurrentMap<String, List<Integer>> intermediate = new ConcurrentHashMap<>();
+    /**
+     * Runs one map task per input, as planned by {@link InputFiles#plan}. The key passed to the
+     * mapper is the file and the byte offset of the line, "path@offset"; a {@link ByteMapper} reads the
+     * input as raw byte ranges instead.
+     */
+    public void runSplits(List<MapInput> splits, Path outputFile, int numWorkers)
+            throws IOException, InterruptedException {
+
+        StripedIntValueStore intermediate = new StripedIntValueStore(numWorkers);
 
         Emitter mapEmitter = (word, count) -> {
             if (word == null || word.isEmpty()) {
                 return;
             }
-            intermediate
-                    .computeIfAbsent(word, k -> Collections.synchronizedList(new ArrayList<>()))
-                    .add(count);
+            intermediate.add(word, count);
         };
 
         ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
-        for (Path input : inputFiles) {
-            executor.submit(() -> runMapperOnFile(input, mapEmitter));
+        for (MapInput split : splits) {
+            executor.submit(() -> {
+                if (combiner == null) {
+                    runMapperOnSplit(split, mapEmitter);
+                    return;
+                }
+                CombiningEmitter local = new CombiningEmitter(combiner, mapEmitter, CombiningEmitter.DEFAULT_MAX_KEYS);
+                runMapperOnSplit(split, local);
+                local.flush();
+            });
         }
         executor.shutdown();
         if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
@@ -56,30 +83,27 @@ public class WordCountJob {
         Map<String, Integer> results = new TreeMap<>();
         Emitter reduceEmitter = results::put;
 
-        for (Map.Entry<String, List<Integer>> entry : intermediate.entrySet()) {
-            reducerReduce(entry.getKey(), entry.getValue(), reduceEmitter);
-        }
+        intermediate.forEach((key, values, count) -> reducerReduce(key, values, count, reduceEmitter));
 
         writeResults(outputFile, results);
     }
 
-    private void runMapperOnFile(Path inputFile, Emitter emitter) {
-        try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)) {
-            String line;
-            long lineNumber = 0L;
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                String key = inputFile.toString() + ":" + lineNumber;
-                mapper.map(key, line, emitter);
+    private void runMapperOnSplit(MapInput split, Emitter emitter) {
+        try {
+            if (mapper instanceof ByteMapper bytes) {
+                // Raw bytes, without a String per line or a key the mapper never reads.
+                split.forEachRange(bytes.forTask(emitter));
+                return;
             }
+            split.forEachLine((file, offset, line) -> mapper.map(file + "@" + offset, line, emitter));
         } catch (IOException e) {
-            throw new UncheckedIOException("Error reading " + inputFile, e);
+            throw new UncheckedIOException("Error reading " + split, e);
         }
     }
 
-    private void reducerReduce(String key, List<Integer> values, Emitter emitter) {
+    private void reducerReduce(String key, int[] values, int count, Emitter emitter) {
         try {
-            reducer.reduce(key, values, emitter);
+            reducer.reduce(key, values, count, emitter);
         } catch (IOException e) {
             throw new UncheckedIOException("Error reducing key " + key, e);
         }
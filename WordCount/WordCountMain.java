@@ -1,4 +1,3 @@
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -7,20 +6,34 @@ import java.util.List;
 public class WordCountMain {
 
     public static void main(String[] args) throws Exception {
+        boolean combine = false;
+        long splitSize = InputSplit.DEFAULT_SPLIT_SIZE;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--combine")) {
+                combine = true;
+            } else if (arg.startsWith("--split-size=")) {
+                splitSize = Long.parseLong(arg.substring("--split-size=".length()));
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[0]);
         if (args.length < 2) {
             printUsage();
             return;
         }
 
         Path output = Paths.get(args[0]).toAbsolutePath();
-        List<Path> inputs = new ArrayList<>();
+        List<InputFiles.Entry> inputs = new ArrayList<>();
         for (int i = 1; i < args.length; i++) {
-            Path input = Paths.get(args[i]).toAbsolutePath();
-            if (!Files.isRegularFile(input)) {
-                System.err.println("[wordcount] Skipping non-regular file: " + input);
+            // A file, a directory or a glob; directories are walked in parallel.
+            List<InputFiles.Entry> found = InputFiles.find(args[i]);
+            if (found.isEmpty()) {
+                System.err.println("[wordcount] Skipping, no regular files at: " + args[i]);
                 continue;
             }
-            inputs.add(input);
+            inputs.addAll(found);
         }
 
         if (inputs.isEmpty()) {
@@ -33,14 +46,16 @@ public class WordCountMain {
 
         Mapper mapper = new WordCountMapper();
         Reducer reducer = new WordCountReducer();
-        WordCountJob job = new WordCountJob(mapper, reducer);
+        WordCountJob job = new WordCountJob(mapper, reducer, combine ? reducer : null);
 
-        System.out.printf("[wordcount] Running with %d worker thread(s) %n", workers);
-        job.run(inputs, output, workers);
+        List<MapInput> splits = InputFiles.plan(inputs, splitSize, workers);
+        System.out.printf("[wordcount] Running with %d worker thread(s) over %d file(s) in %d task(s) %n", workers,
+                inputs.size(), splits.size());
+        job.runSplits(splits, output, workers);
         System.out.println("[wordcount] Done. Results written to " + output);
     }
 
     private static void printUsage() {
-        System.err.println("Usage: java -cp WordCount WordCountMain <output_file> <input_file1> [input_file2]");
+        System.err.println("Usage: java -cp WordCount WordCountMain [--combine] [--split-size=BYTES] <output_file> <input_file|dir|glob>...");
     }
 }
@@ -1,7 +1,11 @@
 import java.io.IOException;
 import java.util.StringTokenizer;
 
-public class WordCountMapper implements Mapper {
+/**
+ * Splits lines into words at whitespace, trims each word to its letters and digits and lowercases
+ * it. Jobs use the byte form, {@link WordTokenizer}, which yields exactly the same words.
+ */
+public class WordCountMapper implements ByteMapper {
 
     @Override
     public void map(String key, String value, Emitter emitter) throws IOException {
@@ -19,7 +23,12 @@ public class WordCountMapper implements Mapper {
         }
     }
 
-    private String normalize(String token) {
+    @Override
+    public MapInput.RangeHandler forTask(Emitter emitter) {
+        return new WordTokenizer(emitter);
+    }
+
+    static String normalize(String token) {
         String lower = token.toLowerCase();
         int start = 0;
         int end = lower.length();
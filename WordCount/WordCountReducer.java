@@ -12,4 +12,13 @@ public class WordCountReducer implements Reducer {
         }
         emitter.emit(key, sum);
     }
+
+    @Override
+    public void reduce(String key, int[] values, int count, Emitter emitter) throws IOException {
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        emitter.emit(key, sum);
+    }
 }
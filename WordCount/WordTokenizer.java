@@ -0,0 +1,186 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * {@link WordCountMapper} over raw UTF-8 bytes, for one map task. Tokens are cut at the same
+ * delimiters as StringTokenizer's, which are all ASCII and so never occur inside a multi-byte
+ * character. ASCII tokens are trimmed and lowercased byte by byte; tokens with other characters
+ * are decoded and go through {@link WordCountMapper#normalize}. Tokens are looked up by their
+ * bytes in a table of the words seen so far, so a String is made once per distinct word rather
+ * than once per occurrence. Not thread-safe: use one per task.
+ */
+public class WordTokenizer implements MapInput.RangeHandler {
+
+    // Beyond this many cached words the table starts over, bounding its memory.
+    private static final int MAX_WORDS = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final byte OTHER = 0;
+    private static final byte DELIMITER = 1;
+    private static final byte LETTER_OR_DIGIT = 2;
+    private static final byte[] ASCII_CLASS = new byte[128];
+    private static final byte[] ASCII_LOWER = new byte[128];
+    // Whether toLowerCase maps A-Z to a-z in the default locale; in Turkish 'I' becomes a dotless i.
+    private static final boolean ASCII_FAST_PATH = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase()
+            .equals("abcdefghijklmnopqrstuvwxyz");
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            if (" \t\n\r\f".indexOf(c) >= 0) {
+                ASCII_CLASS[c] = DELIMITER;
+            } else if (Character.isLetterOrDigit(c)) {
+                ASCII_CLASS[c] = LETTER_OR_DIGIT;
+            }
+            ASCII_LOWER[c] = (byte) Character.toLowerCase(c);
+        }
+    }
+
+    private final Emitter emitter;
+    private byte[] token = new byte[64];
+    private byte[][] keys = new byte[INITIAL_CAPACITY][];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private String[] words = new String[INITIAL_CAPACITY];
+    private int size;
+
+    public WordTokenizer(Emitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void range(Path file, ByteBuffer data, int from, int to) {
+        int i = from;
+        while (i < to) {
+            byte b = data.get(i);
+            if (b >= 0 && ASCII_CLASS[b] == DELIMITER) {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean ascii = true;
+            while (i < to) {
+                b = data.get(i);
+                if (b < 0) {
+                    ascii = false;
+                } else if (ASCII_CLASS[b] == DELIMITER) {
+                    break;
+                }
+                i++;
+            }
+            String word = ascii && ASCII_FAST_PATH ? asciiWord(data, start, i) : otherWord(data, start, i);
+            if (!word.isEmpty()) {
+                emitter.emit(word, 1);
+            }
+        }
+    }
+
+    /** The normalized word of an all-ASCII token, keyed by its trimmed, lowercased bytes. */
+    private String asciiWord(ByteBuffer data, int start, int end) {
+        while (start < end && ASCII_CLASS[data.get(start)] != LETTER_OR_DIGIT) {
+            start++;
+        }
+        while (end > start && ASCII_CLASS[data.get(end - 1)] != LETTER_OR_DIGIT) {
+            end--;
+        }
+        if (start >= end) {
+            return "";
+        }
+        int length = end - start;
+        ensureToken(length);
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            byte lower = ASCII_LOWER[data.get(start + i)];
+            token[i] = lower;
+            hash = 31 * hash + lower;
+        }
+        int slot = slotOf(length, hash);
+        if (keys[slot] == null) {
+            slot = insert(slot, length, hash, new String(token, 0, length, StandardCharsets.ISO_8859_1));
+        }
+        return words[slot];
+    }
+
+    /**
+     * The normalized word of any other token, keyed by its raw bytes. These keys hold a non-ASCII
+     * byte, or are all there is in the table, so they never meet a key of {@link #asciiWord}.
+     */
+    private String otherWord(ByteBuffer data, int start, int end) {
+        int length = end - start;
+        ensureToken(length);
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = data.get(start + i);
+            token[i] = b;
+            hash = 31 * hash + b;
+        }
+        int slot = slotOf(length, hash);
+        if (keys[slot] == null) {
+            String word = WordCountMapper.normalize(new String(token, 0, length, StandardCharsets.UTF_8));
+            slot = insert(slot, length, hash, word);
+        }
+        return words[slot];
+    }
+
+    private void ensureToken(int length) {
+        if (length > token.length) {
+            token = new byte[Math.max(length, token.length * 2)];
+        }
+    }
+
+    private int slotOf(int length, int hash) {
+        int mask = keys.length - 1;
+        int slot = spread(hash) & mask;
+        while (keys[slot] != null && (hashes[slot] != hash
+                || !Arrays.equals(keys[slot], 0, keys[slot].length, token, 0, length))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Caches the word for the token's bytes and returns the slot it ended up in. */
+    private int insert(int slot, int length, int hash, String word) {
+        if (size >= MAX_WORDS) {
+            Arrays.fill(keys, null);
+            Arrays.fill(words, null);
+            size = 0;
+            slot = slotOf(length, hash);
+        } else if ((size + 1) * 4L > keys.length * 3L) {
+            grow();
+            slot = slotOf(length, hash);
+        }
+        keys[slot] = Arrays.copyOf(token, length);
+        hashes[slot] = hash;
+        words[slot] = word;
+        size++;
+        return slot;
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        String[] oldWords = words;
+        int capacity = oldKeys.length * 2;
+        keys = new byte[capacity][];
+        hashes = new int[capacity];
+        words = new String[capacity];
+        int mask = capacity - 1;
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldKeys[old] == null) {
+                continue;
+            }
+            int slot = spread(oldHashes[old]) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[old];
+            hashes[slot] = oldHashes[old];
+            words[slot] = oldWords[old];
+        }
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
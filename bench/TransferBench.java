@@ -0,0 +1,628 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.rmi.registry.LocateRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for the file transfer servers. It starts each server as a local child process,
+ * drives it with many concurrent clients across a sweep of file sizes and concurrency levels,
+ * and writes throughput, request rate, latency percentiles and CPU cost per GB as CSV and JSON.
+ *
+ * <pre>
+ * javac -cp rpc -d bench/out lab1_file/*.java rpc/*.java bench/TransferBench.java
+ * java -cp bench/out TransferBench --transports=rpc,binary --sizes=1K,1M,64M,1G --concurrency=1,8,64
+ * </pre>
+ *
+ * The MPI transfer cannot be driven by concurrent clients; pass a launcher template such as
+ * {@code --mpi-cmd="mpjrun.sh -np 2 -cp mpi mpi.FileTransferMPI {input} {output}"} and every size is
+ * timed as one whole run of that command.
+ */
+public class TransferBench {
+    private static final long DEFAULT_BYTES_PER_CELL = 8L * 1024 * 1024 * 1024;
+    private static final int DEFAULT_MAX_REQUESTS = 2000;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int RPC_CHUNK_SIZE = 1024 * 1024;
+    private static final long SERVER_START_TIMEOUT_MS = 15_000;
+
+    /** One way of moving files to and from a running server. */
+    interface Transport extends AutoCloseable {
+        String name();
+
+        void upload(String remoteName, Path file, long size) throws Exception;
+
+        void download(String remoteName, long size) throws Exception;
+
+        /** CPU time the server process has used so far, in nanoseconds. */
+        long serverCpuNanos();
+
+        /** Largest file this transport can move, in bytes. */
+        long maxSize();
+
+        @Override
+        void close();
+    }
+
+    record Result(String transport, String op, long size, int concurrency, int requests, double seconds,
+                  double mbPerSec, double requestsPerSec, double p50Ms, double p99Ms, double p999Ms,
+                  double cpuSecondsPerGb) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options.containsKey("help")) {
+            printUsage();
+            return;
+        }
+        List<String> transports = List.of(options.getOrDefault("transports", "tcp,rpc,binary").split(","));
+        List<Long> sizes = new ArrayList<>();
+        for (String size : options.getOrDefault("sizes", "1K,64K,1M,64M,1G").split(",")) {
+            sizes.add(parseSize(size));
+        }
+        List<Integer> levels = new ArrayList<>();
+        for (String level : options.getOrDefault("concurrency", "1,8,64").split(",")) {
+            levels.add(Integer.parseInt(level.trim()));
+        }
+        List<String> ops = List.of(options.getOrDefault("ops", "upload,download").split(","));
+        long bytesPerCell = parseSize(options.getOrDefault("bytes-per-cell", Long.toString(DEFAULT_BYTES_PER_CELL)));
+        int maxRequests = Integer.parseInt(options.getOrDefault("max-requests", Integer.toString(DEFAULT_MAX_REQUESTS)));
+        Path workDir = Paths.get(options.getOrDefault("work-dir", "bench_work")).toAbsolutePath();
+        Path output = Paths.get(options.getOrDefault("out", "bench_results")).toAbsolutePath();
+
+        Files.createDirectories(workDir.resolve("inputs"));
+        Map<Long, Path> inputs = new LinkedHashMap<>();
+        for (long size : sizes) {
+            inputs.put(size, ensureInput(workDir.resolve("inputs"), size));
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (String transportName : transports) {
+            String name = transportName.trim();
+            if (name.equals("mpi")) {
+                String template = options.get("mpi-cmd");
+                if (template == null) {
+                    System.err.println("[bench] Skipping mpi: pass --mpi-cmd with {input} and {output} placeholders");
+                    continue;
+                }
+                for (long size : sizes) {
+                    results.add(runMpi(template, inputs.get(size), workDir, size));
+                    writeReports(output, results);
+                }
+                continue;
+            }
+            Path serverDir = workDir.resolve("server-" + name);
+            Files.createDirectories(serverDir);
+            for (Map.Entry<Long, Path> input : inputs.entrySet()) {
+                Files.copy(input.getValue(), serverDir.resolve(downloadName(input.getKey())),
+                        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (Transport transport = openTransport(name, serverDir, options)) {
+                for (String op : ops) {
+                    for (long size : sizes) {
+                        if (size > transport.maxSize()) {
+                            System.err.printf("[bench] %s cannot move %s files, skipping%n", name, formatSize(size));
+                            continue;
+                        }
+                        for (int level : levels) {
+                            Result result = runCell(transport, op.trim(), size, inputs.get(size), level,
+                                    bytesPerCell, maxRequests);
+                            results.add(result);
+                            printResult(result);
+                            writeReports(output, results);
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("[bench] Results written to " + output + ".csv and " + output + ".json");
+    }
+
+    private static Transport openTransport(String name, Path serverDir, Map<String, String> options)
+            throws Exception {
+        switch (name) {
+            case "tcp":
+                return new TcpTransport(serverDir, Integer.parseInt(options.getOrDefault("tcp-port", "9300")),
+                        options.getOrDefault("tcp-server-flags", ""));
+            case "rpc":
+                return FileServiceTransport.rmi(serverDir, Integer.parseInt(options.getOrDefault("rpc-port", "1399")));
+            case "binary":
+                return FileServiceTransport.binary(serverDir,
+                        Integer.parseInt(options.getOrDefault("binary-port", "1400")));
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + name);
+        }
+    }
+
+    private static Result runCell(Transport transport, String op, long size, Path input, int concurrency,
+            long bytesPerCell, int maxRequests) throws Exception {
+        // Small files get many requests for stable tail percentiles; large ones stop at the byte budget.
+        long byBudget = Math.max(1, bytesPerCell / Math.max(1, size));
+        int requests = (int) Math.min(byBudget, Math.max(concurrency, maxRequests));
+        int workers = Math.min(concurrency, requests);
+        boolean upload = op.equals("upload");
+        if (!upload && !op.equals("download")) {
+            throw new IllegalArgumentException("Unknown op: " + op);
+        }
+
+        // One unmeasured request per worker warms up connections, JIT and page cache.
+        runRequests(transport, upload, size, input, workers, workers, null);
+
+        long[] latencies = new long[requests];
+        long cpuBefore = processCpuNanos() + transport.serverCpuNanos();
+        long start = System.nanoTime();
+        runRequests(transport, upload, size, input, workers, requests, latencies);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long cpu = processCpuNanos() + transport.serverCpuNanos() - cpuBefore;
+
+        Arrays.sort(latencies);
+        double bytes = (double) size * requests;
+        return new Result(transport.name(), op, size, workers, requests, seconds,
+                bytes / seconds / 1e6, requests / seconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                cpu / 1e9 / (bytes / 1e9));
+    }
+
+    private static void runRequests(Transport transport, boolean upload, long size, Path input, int workers,
+            int requests, long[] latencies) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                String uploadName = "up-" + formatSize(size) + "-" + w;
+                futures.add(pool.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < requests) {
+                        long begin = System.nanoTime();
+                        if (upload) {
+                            transport.upload(uploadName, input, size);
+                        } else {
+                            transport.download(downloadName(size), size);
+                        }
+                        if (latencies != null) {
+                            latencies[index] = System.nanoTime() - begin;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException(transport.name() + " request failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Result runMpi(String template, Path input, Path workDir, long size) throws Exception {
+        Path output = workDir.resolve("mpi-out-" + formatSize(size));
+        String command = template.replace("{input}", input.toString()).replace("{output}", output.toString());
+        System.out.println("[bench] mpi: " + command);
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder("sh", "-c", command).inheritIO().start();
+        int exit = process.waitFor();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long cpu = process.toHandle().info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+        if (exit != 0) {
+            throw new IOException("MPI command exited with " + exit);
+        }
+        double ms = seconds * 1000;
+        Result result = new Result("mpi", "transfer", size, 1, 1, seconds, size / seconds / 1e6, 1 / seconds,
+                ms, ms, ms, cpu / 1e9 / (size / 1e9));
+        printResult(result);
+        return result;
+    }
+
+    /** The lab1_file TCP server, driven with the plain 'U'/'D' requests. */
+    static final class TcpTransport implements Transport {
+        private final Process server;
+        private final int port;
+
+        TcpTransport(Path serverDir, int port, String serverFlags) throws Exception {
+            this.port = port;
+            List<String> command = javaCommand("Server", "127.0.0.1", Integer.toString(port), serverDir.toString());
+            for (String flag : serverFlags.trim().split("\\s+")) {
+                if (!flag.isEmpty()) {
+                    command.add(flag);
+                }
+            }
+            server = startServer(command, () -> {
+                new Socket("127.0.0.1", port).close();
+                return true;
+            });
+        }
+
+        @Override
+        public String name() {
+            return "tcp";
+        }
+
+        @Override
+        public void upload(String remoteName, Path file, long size) throws IOException {
+            byte[] nameBytes = remoteName.getBytes(StandardCharsets.UTF_8);
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                 FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                DataOutputStream out = new DataOutputStream(channel.socket().getOutputStream());
+                out.writeByte('U');
+                out.writeInt(nameBytes.length);
+                out.writeLong(size);
+                out.write(nameBytes);
+                out.flush();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, channel);
+                }
+                InputStream reply = channel.socket().getInputStream();
+                if (reply.readNBytes(1024).length == 0) {
+                    throw new IOException("No acknowledgement for " + remoteName);
+                }
+            }
+        }
+
+        @Override
+        public void download(String remoteName, long size) throws IOException {
+            byte[] nameBytes = remoteName.getBytes(StandardCharsets.UTF_8);
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+                DataOutputStream out = new DataOutputStream(channel.socket().getOutputStream());
+                DataInputStream in = new DataInputStream(channel.socket().getInputStream());
+                out.writeByte('D');
+                out.writeInt(nameBytes.length);
+                out.write(nameBytes);
+                out.flush();
+                if (in.readByte() != 0 || in.readLong() != size) {
+                    throw new IOException("Unexpected reply for " + remoteName);
+                }
+                // Discard the data so the client's disk does not skew the server's numbers.
+                ByteBuffer sink = ByteBuffer.allocate(CHUNK_SIZE);
+                long remaining = size;
+                while (remaining > 0) {
+                    sink.clear().limit((int) Math.min(CHUNK_SIZE, remaining));
+                    int read = channel.read(sink);
+                    if (read < 0) {
+                        throw new IOException("Server closed with " + remaining + " bytes left");
+                    }
+                    remaining -= read;
+                }
+            }
+        }
+
+        @Override
+        public long serverCpuNanos() {
+            return cpuNanos(server);
+        }
+
+        @Override
+        public long maxSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void close() {
+            stopServer(server);
+        }
+    }
+
+    /**
+     * The rpc FileService, over Java RMI or the binary transport. Files up to one chunk use the
+     * whole-file calls and larger ones the chunked streaming calls, the same split the clients make.
+     */
+    static final class FileServiceTransport implements Transport {
+        private final String name;
+        private final Process server;
+        private final FileService service;
+
+        private FileServiceTransport(String name, Process server, FileService service) {
+            this.name = name;
+            this.server = server;
+            this.service = service;
+        }
+
+        static FileServiceTransport rmi(Path serverDir, int port) throws Exception {
+            Process server = startServer(javaCommand("RpcServer", serverDir.toString(), Integer.toString(port)),
+                    () -> {
+                        LocateRegistry.getRegistry("127.0.0.1", port).lookup("FileService");
+                        return true;
+                    });
+            return new FileServiceTransport("rpc", server,
+                    (FileService) LocateRegistry.getRegistry("127.0.0.1", port).lookup("FileService"));
+        }
+
+        static FileServiceTransport binary(Path serverDir, int port) throws Exception {
+            Process server = startServer(
+                    javaCommand("BinaryRpcServer", serverDir.toString(), Integer.toString(port)), () -> {
+                        new Socket("127.0.0.1", port).close();
+                        return true;
+                    });
+            // One multiplexed connection carries every worker's calls.
+            return new FileServiceTransport("binary", server, new BinaryFileClient("127.0.0.1", port));
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void upload(String remoteName, Path file, long size) throws IOException {
+            if (size <= FileService.MAX_CHUNK_SIZE) {
+                service.upload(remoteName, Files.readAllBytes(file));
+                return;
+            }
+            long uploadId = service.openUpload(remoteName);
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                byte[] chunk = new byte[RPC_CHUNK_SIZE];
+                long position = 0;
+                while (position < size) {
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - position));
+                    while (buffer.hasRemaining()) {
+                        if (in.read(buffer, position + buffer.position()) == -1) {
+                            throw new IOException(file + " is shorter than " + size + " bytes");
+                        }
+                    }
+                    service.writeChunk(uploadId, position,
+                            buffer.limit() == chunk.length ? chunk : Arrays.copyOf(chunk, buffer.limit()));
+                    position += buffer.limit();
+                }
+                service.commit(uploadId);
+            } catch (IOException e) {
+                service.abort(uploadId);
+                throw e;
+            }
+        }
+
+        @Override
+        public void download(String remoteName, long size) throws IOException {
+            long received = 0;
+            if (size <= FileService.MAX_CHUNK_SIZE) {
+                received = service.download(remoteName).length;
+            } else {
+                long downloadId = service.openDownload(remoteName);
+                try {
+                    byte[] chunk;
+                    while ((chunk = service.readChunk(downloadId, RPC_CHUNK_SIZE)).length > 0) {
+                        received += chunk.length;
+                    }
+                } finally {
+                    service.closeDownload(downloadId);
+                }
+            }
+            if (received != size) {
+                throw new IOException("Unexpected size for " + remoteName);
+            }
+        }
+
+        @Override
+        public long serverCpuNanos() {
+            return cpuNanos(server);
+        }
+
+        @Override
+        public long maxSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void close() {
+            if (service instanceof BinaryFileClient connection) {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                    // the server is stopped next anyway
+                }
+            }
+            stopServer(server);
+        }
+    }
+
+    interface Probe {
+        boolean ready() throws Exception;
+    }
+
+    private static List<String> javaCommand(String mainClass, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    private static Process startServer(List<String> command, Probe probe) throws Exception {
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MS;
+        while (true) {
+            try {
+                if (probe.ready()) {
+                    return process;
+                }
+            } catch (Exception e) {
+                if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                    process.destroyForcibly();
+                    throw new IOException("Server did not start: " + String.join(" ", command), e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void stopServer(Process server) {
+        server.destroy();
+        try {
+            server.waitFor();
+        } catch (InterruptedException e) {
+            server.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long cpuNanos(Process process) {
+        return process.toHandle().info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun) {
+            return sun.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static Path ensureInput(Path dir, long size) throws IOException {
+        Path file = dir.resolve("input-" + formatSize(size));
+        if (Files.isRegularFile(file) && Files.size(file) == size) {
+            return file;
+        }
+        System.out.println("[bench] Generating " + formatSize(size) + " input");
+        SplittableRandom random = new SplittableRandom(size);
+        byte[] block = new byte[1024 * 1024];
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(block);
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, remaining));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                remaining -= buffer.limit();
+            }
+        }
+        return file;
+    }
+
+    private static String downloadName(long size) {
+        return "down-" + formatSize(size);
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static void printResult(Result r) {
+        System.out.printf(Locale.ROOT, "[bench] %-4s %-8s %8s x%-4d %8.1f MB/s %9.1f req/s  p50 %8.2f ms"
+                        + "  p99 %8.2f ms  p999 %8.2f ms  %6.2f cpu-s/GB%n",
+                r.transport(), r.op(), formatSize(r.size()), r.concurrency(), r.mbPerSec(), r.requestsPerSec(),
+                r.p50Ms(), r.p99Ms(), r.p999Ms(), r.cpuSecondsPerGb());
+    }
+
+    private static void writeReports(Path output, List<Result> results) throws IOException {
+        StringBuilder csv = new StringBuilder(
+                "transport,op,size_bytes,concurrency,requests,seconds,mb_per_s,requests_per_s,"
+                        + "p50_ms,p99_ms,p999_ms,cpu_s_per_gb\n");
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            csv.append(String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.6f,%.3f,%.3f,%.3f,%.3f,%.3f,%.4f%n",
+                    r.transport(), r.op(), r.size(), r.concurrency(), r.requests(), r.seconds(), r.mbPerSec(),
+                    r.requestsPerSec(), r.p50Ms(), r.p99Ms(), r.p999Ms(), r.cpuSecondsPerGb()));
+            json.append(String.format(Locale.ROOT, "  {\"transport\": \"%s\", \"op\": \"%s\", \"size_bytes\": %d, "
+                            + "\"concurrency\": %d, \"requests\": %d, \"seconds\": %.6f, \"mb_per_s\": %.3f, "
+                            + "\"requests_per_s\": %.3f, \"p50_ms\": %.3f, \"p99_ms\": %.3f, \"p999_ms\": %.3f, "
+                            + "\"cpu_s_per_gb\": %.4f}%s%n",
+                    r.transport(), r.op(), r.size(), r.concurrency(), r.requests(), r.seconds(), r.mbPerSec(),
+                    r.requestsPerSec(), r.p50Ms(), r.p99Ms(), r.p999Ms(), r.cpuSecondsPerGb(),
+                    i + 1 < results.size() ? "," : ""));
+        }
+        json.append("]\n");
+        Path parent = output.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(Paths.get(output + ".csv"), csv);
+        Files.writeString(Paths.get(output + ".json"), json);
+    }
+
+    static long parseSize(String text) {
+        String value = text.trim().toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (value.endsWith("K")) {
+            multiplier = 1024L;
+        } else if (value.endsWith("M")) {
+            multiplier = 1024L * 1024;
+        } else if (value.endsWith("G")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * multiplier;
+    }
+
+    static String formatSize(long size) {
+        if (size >= 1024L * 1024 * 1024 && size % (1024L * 1024 * 1024) == 0) {
+            return size / (1024L * 1024 * 1024) + "G";
+        }
+        if (size >= 1024L * 1024 && size % (1024L * 1024) == 0) {
+            return size / (1024L * 1024) + "M";
+        }
+        if (size >= 1024 && size % 1024 == 0) {
+            return size / 1024 + "K";
+        }
+        return Long.toString(size);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java -cp <lab1_file+rpc+bench classes> TransferBench [options]");
+        System.err.println("  --transports=tcp,rpc,binary,mpi  servers to measure (default tcp,rpc,binary)");
+        System.err.println("  --sizes=1K,64K,1M,64M,1G   file sizes to sweep");
+        System.err.println("  --concurrency=1,8,64       concurrent clients to sweep");
+        System.err.println("  --ops=upload,download      directions to measure");
+        System.err.println("  --bytes-per-cell=8G        caps the data moved per size/concurrency cell");
+        System.err.println("  --max-requests=2000        caps the requests per cell for small files");
+        System.err.println("  --tcp-server-flags=\"...\"   extra flags for the TCP server, e.g. --stream");
+        System.err.println("  --mpi-cmd=\"...\"            MPI launcher with {input} and {output} placeholders");
+        System.err.println("  --work-dir=bench_work --out=bench_results");
+    }
+}
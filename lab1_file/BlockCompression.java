@@ -0,0 +1,202 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Streaming block compression for the 'Z' requests. A file is cut into 256 KiB blocks that are
+ * compressed (or decompressed) on a shared worker pool while the calling thread keeps the socket
+ * busy with the blocks that are already done, so codec work overlaps network I/O. Each block is
+ * framed as {@code int raw length, int stored length, byte codec, bytes}; blocks that do not shrink
+ * are sent as-is, and after such a block the sender stops trying for a while so incompressible
+ * data costs almost no CPU.
+ */
+final class BlockCompression {
+    static final int BLOCK_SIZE = 256 * 1024;
+    static final int CODEC_STORED = 0;
+    static final int CODEC_DEFLATE = 1;
+
+    private static final int MAX_SKIP_BLOCKS = 64;
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int IN_FLIGHT = WORKERS * 2;
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(WORKERS, r -> {
+        Thread thread = new Thread(r, "block-codec");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private record Block(int rawLength, int codec, byte[] data, int length, boolean attempted) {
+    }
+
+    private BlockCompression() {
+    }
+
+    /**
+     * Sends {@code size} bytes of the file as compressed blocks.
+     *
+     * @return the number of payload bytes written to the socket
+     */
+    static long send(FileChannel file, long size, int level, OutputStream socketOut) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socketOut, BLOCK_SIZE));
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+        long wire = 0;
+        long nextOffset = 0;
+        long blockIndex = 0;
+        long skipUntil = 0;
+        int skipLength = 1;
+        while (nextOffset < size || !pending.isEmpty()) {
+            while (nextOffset < size && pending.size() < IN_FLIGHT) {
+                long offset = nextOffset;
+                int rawLength = (int) Math.min(BLOCK_SIZE, size - offset);
+                boolean tryCompress = blockIndex >= skipUntil;
+                pending.add(POOL.submit(() -> encode(file, offset, rawLength, tryCompress ? level : -1)));
+                nextOffset += rawLength;
+                blockIndex++;
+            }
+            Block block = await(pending.poll());
+            if (block.codec == CODEC_STORED && block.attempted) {
+                // The block was tried and did not shrink: back off before trying again.
+                skipUntil = blockIndex + skipLength;
+                skipLength = Math.min(MAX_SKIP_BLOCKS, skipLength * 2);
+            } else if (block.codec == CODEC_DEFLATE) {
+                skipLength = 1;
+            }
+            out.writeInt(block.rawLength);
+            out.writeInt(block.length);
+            out.writeByte(block.codec);
+            out.write(block.data, 0, block.length);
+            wire += 9 + block.length;
+        }
+        out.flush();
+        return wire;
+    }
+
+    /** Receives compressed blocks and writes {@code size} decoded bytes into the file. */
+    static void receive(InputStream socketIn, FileChannel file, long size) throws IOException {
+        DataInputStream in = new DataInputStream(socketIn);
+        ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+        try {
+            long offset = 0;
+            while (offset < size) {
+                int rawLength = in.readInt();
+                int length = in.readInt();
+                int codec = in.readByte();
+                if (rawLength <= 0 || rawLength > BLOCK_SIZE || rawLength > size - offset
+                        || length < 0 || length > BLOCK_SIZE + 1024) {
+                    throw new IOException("Bad compressed block at offset " + offset);
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                long blockOffset = offset;
+                pending.add(POOL.submit(() -> decode(file, blockOffset, rawLength, codec, data)));
+                offset += rawLength;
+                while (pending.size() >= IN_FLIGHT) {
+                    await(pending.poll());
+                }
+            }
+            while (!pending.isEmpty()) {
+                await(pending.poll());
+            }
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static Block encode(FileChannel file, long offset, int rawLength, int level) throws IOException {
+        byte[] raw = new byte[rawLength];
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, offset + buffer.position()) == -1) {
+                throw new IOException("File ended at offset " + (offset + buffer.position()));
+            }
+        }
+        if (level < 0) {
+            return new Block(rawLength, CODEC_STORED, raw, rawLength, false);
+        }
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] compressed = new byte[rawLength];
+            int length = 0;
+            while (!deflater.finished() && length < compressed.length) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            if (!deflater.finished()) {
+                return new Block(rawLength, CODEC_STORED, raw, rawLength, true);
+            }
+            return new Block(rawLength, CODEC_DEFLATE, compressed, length, true);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static Void decode(FileChannel file, long offset, int rawLength, int codec, byte[] data)
+            throws IOException {
+        byte[] raw;
+        if (codec == CODEC_STORED) {
+            if (data.length != rawLength) {
+                throw new IOException("Stored block length mismatch at offset " + offset);
+            }
+            raw = data;
+        } else if (codec == CODEC_DEFLATE) {
+            raw = new byte[rawLength];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                int length = 0;
+                while (length < rawLength && !inflater.finished()) {
+                    int n = inflater.inflate(raw, length, rawLength - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+                if (length != rawLength) {
+                    throw new IOException("Corrupt compressed block at offset " + offset);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed block at offset " + offset, e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IOException("Unknown block codec " + codec);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        while (buffer.hasRemaining()) {
+            file.write(buffer, offset + buffer.position());
+        }
+        return null;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a block", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Moves byte ranges between files and sockets. The channel methods are zero-copy: the kernel moves
+ * file data to and from the socket (sendfile/splice) without copying it through the Java heap.
+ * The stream methods are the buffered fallback.
+ */
+final class ChannelTransfer {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private ChannelTransfer() {
+    }
+
+    static void sendFile(FileChannel file, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long sent = file.transferTo(position, remaining, target);
+            if (sent <= 0 && position >= file.size()) {
+                throw new IOException("File ended with " + remaining + " bytes left to send");
+            }
+            position += sent;
+            remaining -= sent;
+        }
+    }
+
+    static void receiveFile(ReadableByteChannel source, FileChannel file, long position, long count)
+            throws IOException {
+        long remaining = count;
+        ByteBuffer probe = null;
+        while (remaining > 0) {
+            long received = file.transferFrom(source, position, remaining);
+            if (received <= 0) {
+                // transferFrom cannot tell a slow peer from a closed one; a plain read can.
+                if (probe == null) {
+                    probe = ByteBuffer.allocate(1);
+                }
+                probe.clear();
+                if (source.read(probe) < 0) {
+                    throw new IOException("Connection closed with " + remaining + " bytes left");
+                }
+                probe.flip();
+                received = file.write(probe, position);
+            }
+            position += received;
+            remaining -= received;
+        }
+    }
+
+    static void copyToStream(FileChannel file, long position, long count, OutputStream out) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long remaining = count;
+        while (remaining > 0) {
+            wrapped.clear().limit((int) Math.min(buffer.length, remaining));
+            int read = file.read(wrapped, position);
+            if (read == -1) {
+                throw new IOException("File ended with " + remaining + " bytes left to send");
+            }
+            out.write(buffer, 0, read);
+            position += read;
+            remaining -= read;
+        }
+        out.flush();
+    }
+
+    static void copyFromStream(InputStream in, FileChannel file, long position, long count) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+            int toRead = (int) Math.min(buffer.length, remaining);
+            int read = in.read(buffer, 0, toRead);
+            if (read == -1) {
+                throw new IOException("Connection closed with " + remaining + " bytes left");
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            while (chunk.hasRemaining()) {
+                position += file.write(chunk, position);
+            }
+            remaining -= read;
+        }
+    }
+}
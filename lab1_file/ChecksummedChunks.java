@@ -0,0 +1,85 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * Chunk framing for resumable transfers: every chunk is sent as {@code int length, int crc32c, bytes}.
+ * The receiver checks each chunk before writing it, so the file on disk only ever holds verified
+ * bytes and a broken transfer can continue from the file's current length.
+ */
+final class ChecksummedChunks {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Thrown when a chunk fails its checksum; everything before {@link #offset()} is verified. */
+    static final class ChecksumMismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final long offset;
+
+        ChecksumMismatchException(long offset) {
+            super("Checksum mismatch in chunk at offset " + offset);
+            this.offset = offset;
+        }
+
+        long offset() {
+            return offset;
+        }
+    }
+
+    private ChecksummedChunks() {
+    }
+
+    static void send(OutputStream socketOut, FileChannel file, long position, long count) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socketOut, CHUNK_SIZE + 8));
+        byte[] buffer = new byte[CHUNK_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        CRC32C crc = new CRC32C();
+        long remaining = count;
+        while (remaining > 0) {
+            wrapped.clear().limit((int) Math.min(buffer.length, remaining));
+            while (wrapped.hasRemaining()) {
+                if (file.read(wrapped, position + wrapped.position()) == -1) {
+                    throw new IOException("File ended with " + remaining + " bytes left to send");
+                }
+            }
+            int length = wrapped.position();
+            crc.reset();
+            crc.update(buffer, 0, length);
+            out.writeInt(length);
+            out.writeInt((int) crc.getValue());
+            out.write(buffer, 0, length);
+            position += length;
+            remaining -= length;
+        }
+        out.flush();
+    }
+
+    static void receive(DataInputStream in, FileChannel file, long position, long count) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        CRC32C crc = new CRC32C();
+        long remaining = count;
+        while (remaining > 0) {
+            int length = in.readInt();
+            if (length <= 0 || length > CHUNK_SIZE || length > remaining) {
+                throw new IOException("Bad chunk length " + length + " at offset " + position);
+            }
+            int expected = in.readInt();
+            in.readFully(buffer, 0, length);
+            crc.reset();
+            crc.update(buffer, 0, length);
+            if ((int) crc.getValue() != expected) {
+                throw new ChecksumMismatchException(position);
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+            while (chunk.hasRemaining()) {
+                file.write(chunk, position + chunk.position());
+            }
+            position += length;
+            remaining -= length;
+        }
+    }
+}
@@ -1,21 +1,68 @@
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 public class Client {
-    private static final int CHUNK_SIZE = 64 * 1024;
+    /** Files are only striped when every stripe gets at least this many bytes. */
+    private static final long MIN_STRIPE_SIZE = 1024 * 1024;
+    private static final long MAX_RETRY_DELAY_MS = 10_000;
+    private static final int SESSION_BUFFER_SIZE = 64 * 1024;
+
+    private static boolean zeroCopy = true;
+    private static int stripes = 1;
+    private static boolean resume;
+    private static int retries = 5;
+    private static int compressLevel = -1;
+    private static boolean delta;
 
     public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        args = options.positional();
+        zeroCopy = !options.has("stream");
+        stripes = Math.max(1, options.getInt("stripes", 1));
+        resume = options.has("resume");
+        retries = Math.max(0, options.getInt("retries", retries));
+        delta = options.has("delta");
+        if (options.has("compress")) {
+            String level = options.get("compress", "true");
+            compressLevel = level.equals("true") ? Deflater.BEST_SPEED : Integer.parseInt(level);
+        }
+
         if (args.length < 1) {
             printUsage();
             return;
         }
 
+        if (args[0].equalsIgnoreCase("putdir") || args[0].equalsIgnoreCase("getlist")) {
+            runSession(args);
+            return;
+        }
+
         String mode;
         if (args[0].equalsIgnoreCase("upload") || args[0].equalsIgnoreCase("download")) {
             mode = args[0].toLowerCase();
@@ -37,7 +84,18 @@ public class Client {
             String host = args.length > offset + 1 ? args[offset + 1] : "127.0.0.1";
             int port = args.length > offset + 2 ? Integer.parseInt(args[offset + 2]) : 9000;
             String remoteName = args.length > offset + 3 ? args[offset + 3] : filePath.getFileName().toString();
-            sendFile(host, port, filePath, remoteName);
+            int stripeCount = stripeCount(Files.size(filePath));
+            if (delta && supports(host, port, Protocol.CAP_DELTA)) {
+                sendFileDelta(host, port, filePath, remoteName);
+            } else if (resume && supports(host, port, Protocol.CAP_RESUME)) {
+                sendFileResumable(host, port, filePath, remoteName);
+            } else if (compressLevel >= 0 && supports(host, port, Protocol.CAP_COMPRESS)) {
+                sendFileCompressed(host, port, filePath, remoteName);
+            } else if (stripeCount > 1 && supports(host, port, Protocol.CAP_STRIPED)) {
+                sendFileStriped(host, port, filePath, remoteName, stripeCount);
+            } else {
+                sendFile(host, port, filePath, remoteName);
+            }
         } else { // download
             if (args.length < 2) {
                 printUsage();
@@ -49,7 +107,15 @@ public class Client {
             Path outputPath = args.length > 4
                     ? Paths.get(args[4]).toAbsolutePath()
                     : Paths.get(remoteName).toAbsolutePath();
-            downloadFile(host, port, remoteName, outputPath);
+            if (resume && supports(host, port, Protocol.CAP_RESUME)) {
+                downloadFileResumable(host, port, remoteName, outputPath);
+            } else if (compressLevel >= 0 && supports(host, port, Protocol.CAP_COMPRESS)) {
+                downloadFileCompressed(host, port, remoteName, outputPath);
+            } else if (stripes > 1 && supports(host, port, Protocol.CAP_STRIPED)) {
+                downloadFileStriped(host, port, remoteName, outputPath);
+            } else {
+                downloadFile(host, port, remoteName, outputPath);
+            }
         }
     }
 
@@ -57,7 +123,8 @@ public class Client {
         long fileSize = Files.size(filePath);
         byte[] nameBytes = remoteName.getBytes("UTF-8");
 
-        try (Socket socket = new Socket(host, port)) {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            Socket socket = channel.socket();
             System.out.println("[+] Connected to " + host + ":" + port);
             DataOutputStream out = new DataOutputStream(socket.getOutputStream());
             DataInputStream in = new DataInputStream(socket.getInputStream());
@@ -66,15 +133,11 @@ public class Client {
             out.writeInt(nameBytes.length);
             out.writeLong(fileSize);
             out.write(nameBytes);
+            out.flush();
 
-            byte[] buffer = new byte[CHUNK_SIZE];
-            try (BufferedInputStream fileIn = new BufferedInputStream(Files.newInputStream(filePath))) {
-                int read;
-                while ((read = fileIn.read(buffer)) != -1) {
-                    out.write(buffer, 0, read);
-                }
+            try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                send(file, 0, fileSize, channel, out);
             }
-            out.flush();
 
             System.out.printf("[+] Sent '%s' (%d bytes)%n", remoteName, fileSize);
 
@@ -94,7 +157,8 @@ public class Client {
             Files.createDirectories(parent);
         }
 
-        try (Socket socket = new Socket(host, port)) {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            Socket socket = channel.socket();
             System.out.println("[+] Connected to " + host + ":" + port);
             DataOutputStream out = new DataOutputStream(socket.getOutputStream());
             DataInputStream in = new DataInputStream(socket.getInputStream());
@@ -111,19 +175,9 @@ public class Client {
             }
 
             long size = in.readLong();
-            byte[] buffer = new byte[CHUNK_SIZE];
-            long remaining = size;
-
-            try (var fileOut = Files.newOutputStream(outputPath)) {
-                while (remaining > 0) {
-                    int toRead = (int) Math.min(buffer.length, remaining);
-                    int read = in.read(buffer, 0, toRead);
-                    if (read == -1) {
-                        throw new IOException("Connection closed unexpectedly with " + remaining + " bytes left");
-                    }
-                    fileOut.write(buffer, 0, read);
-                    remaining -= read;
-                }
+            try (FileChannel file = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                receive(channel, in, file, 0, size);
             }
 
             System.out.printf("[+] Downloaded '%s' to '%s' (%d bytes)%n",
@@ -131,9 +185,657 @@ public class Client {
         }
     }
 
+    private static void sendFileCompressed(String host, int port, Path filePath, String remoteName)
+            throws IOException {
+        long fileSize = Files.size(filePath);
+        byte[] nameBytes = remoteName.getBytes("UTF-8");
+
+        try (Socket socket = new Socket(host, port)) {
+            System.out.println("[+] Connected to " + host + ":" + port);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeByte('Z');
+            out.writeByte('U');
+            out.writeByte(compressLevel);
+            out.writeInt(nameBytes.length);
+            out.writeLong(fileSize);
+            out.write(nameBytes);
+
+            long wire;
+            try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                wire = BlockCompression.send(file, fileSize, compressLevel, out);
+            }
+            System.out.printf("[+] Sent '%s' (%d bytes, %d on the wire)%n", remoteName, fileSize, wire);
+
+            byte[] reply = in.readNBytes(1024);
+            if (reply.length > 0) {
+                System.out.println("[+] Server reply: " + new String(reply, "UTF-8").trim());
+            } else {
+                System.out.println("[!] No acknowledgement received");
+            }
+        }
+    }
+
+    private static void downloadFileCompressed(String host, int port, String remoteName, Path outputPath)
+            throws IOException {
+        byte[] nameBytes = remoteName.getBytes("UTF-8");
+        Path parent = outputPath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        try (Socket socket = new Socket(host, port)) {
+            System.out.println("[+] Connected to " + host + ":" + port);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeByte('Z');
+            out.writeByte('D');
+            out.writeByte(compressLevel);
+            out.writeInt(nameBytes.length);
+            out.write(nameBytes);
+            out.flush();
+
+            if (in.readByte() != 0) {
+                System.err.println("[!] Server reported file not found: " + remoteName);
+                return;
+            }
+            long size = in.readLong();
+            try (FileChannel file = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                BlockCompression.receive(in, file, size);
+            }
+
+            System.out.printf("[+] Downloaded '%s' to '%s' (%d bytes, compressed)%n",
+                    remoteName, outputPath, size);
+        }
+    }
+
+    private static void sendFileDelta(String host, int port, Path filePath, String remoteName) throws IOException {
+        long fileSize = Files.size(filePath);
+        byte[] nameBytes = remoteName.getBytes("UTF-8");
+
+        try (Socket socket = new Socket(host, port)) {
+            System.out.println("[+] Connected to " + host + ":" + port);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), SESSION_BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), SESSION_BUFFER_SIZE));
+
+            out.writeByte('Y');
+            out.writeInt(nameBytes.length);
+            out.writeLong(fileSize);
+            out.write(nameBytes);
+            out.flush();
+
+            DeltaSync.Signatures signatures = DeltaSync.readSignatures(in);
+            DeltaSync.Stats stats;
+            try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                stats = DeltaSync.sendDelta(file, fileSize, signatures, out);
+            }
+
+            if (in.readByte() != 0) {
+                throw new IOException("Server could not verify the delta for '" + remoteName + "'");
+            }
+            in.readLong();
+            System.out.printf("[+] Sent '%s' (%d bytes: %d reused from %d server blocks, %d literal)%n",
+                    remoteName, fileSize, stats.matched(), signatures.blockCount(), stats.literal());
+        }
+    }
+
+    private static void sendFileStriped(String host, int port, Path filePath, String remoteName, int stripeCount)
+            throws IOException, InterruptedException {
+        long fileSize = Files.size(filePath);
+        long transferId = ThreadLocalRandom.current().nextLong();
+        long stripeSize = (fileSize + stripeCount - 1) / stripeCount;
+
+        System.out.printf("[+] Uploading '%s' (%d bytes) over %d connections to %s:%d%n",
+                remoteName, fileSize, stripeCount, host, port);
+        boolean published = false;
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ);
+             ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (long offset = 0; offset < fileSize; offset += stripeSize) {
+                long start = offset;
+                long length = Math.min(stripeSize, fileSize - offset);
+                results.add(pool.submit(() ->
+                        sendStripe(host, port, file, remoteName, fileSize, transferId, start, length)));
+            }
+            for (Future<Boolean> result : results) {
+                published |= await(result);
+            }
+        }
+
+        if (!published) {
+            throw new IOException("Server did not confirm that '" + remoteName + "' is complete");
+        }
+        System.out.printf("[+] Sent '%s' (%d bytes, %d stripes)%n", remoteName, fileSize, stripeCount);
+    }
+
+    private static boolean sendStripe(String host, int port, FileChannel file, String remoteName, long fileSize,
+            long transferId, long offset, long length) throws IOException {
+        byte[] nameBytes = remoteName.getBytes("UTF-8");
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            Socket socket = channel.socket();
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeByte('S');
+            out.writeInt(nameBytes.length);
+            out.writeLong(fileSize);
+            out.writeLong(transferId);
+            out.writeLong(offset);
+            out.writeLong(length);
+            out.write(nameBytes);
+            out.flush();
+
+            send(file, offset, length, channel, out);
+            return in.readByte() == 2;
+        }
+    }
+
+    private static void downloadFileStriped(String host, int port, String remoteName, Path outputPath)
+            throws IOException, InterruptedException {
+        long size = requestRange(host, port, remoteName, 0, 0, null);
+        if (size < 0) {
+            System.err.println("[!] Server reported file not found: " + remoteName);
+            return;
+        }
+        int stripeCount = stripeCount(size);
+        if (stripeCount <= 1) {
+            downloadFile(host, port, remoteName, outputPath);
+            return;
+        }
+
+        Path parent = outputPath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = outputPath.resolveSibling(outputPath.getFileName() + ".part");
+        long stripeSize = (size + stripeCount - 1) / stripeCount;
+
+        System.out.printf("[+] Downloading '%s' (%d bytes) over %d connections from %s:%d%n",
+                remoteName, size, stripeCount, host, port);
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Long>> results = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += stripeSize) {
+                long start = offset;
+                long length = Math.min(stripeSize, size - offset);
+                results.add(pool.submit(() -> requestRange(host, port, remoteName, start, length, file)));
+            }
+            for (Future<Long> result : results) {
+                if (await(result) != size) {
+                    throw new IOException("'" + remoteName + "' changed on the server during download");
+                }
+            }
+        }
+        Files.move(temp, outputPath, StandardCopyOption.REPLACE_EXISTING);
+
+        System.out.printf("[+] Downloaded '%s' to '%s' (%d bytes, %d stripes)%n",
+                remoteName, outputPath, size, stripeCount);
+    }
+
+    /**
+     * Sends an 'R' request and writes the returned bytes at the same offset of {@code file}.
+     *
+     * @return the server-side file size, or -1 when the file does not exist
+     */
+    private static long requestRange(String host, int port, String remoteName, long offset, long length,
+            FileChannel file) throws IOException {
+        byte[] nameBytes = remoteName.getBytes("UTF-8");
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            Socket socket = channel.socket();
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeByte('R');
+            out.writeInt(nameBytes.length);
+            out.writeLong(offset);
+            out.writeLong(length);
+            out.write(nameBytes);
+            out.flush();
+
+            if (in.readByte() != 0) {
+                return -1;
+            }
+            long size = in.readLong();
+            long count = in.readLong();
+            if (count != length) {
+                throw new IOException("Server returned " + count + " bytes for a " + length + " byte range");
+            }
+            if (count > 0) {
+                receive(channel, in, file, offset, count);
+            }
+            return size;
+        }
+    }
+
+    private static void sendFileResumable(String host, int port, Path filePath, String remoteName)
+            throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (uploadAttempt(host, port, filePath, remoteName)) {
+                    return;
+                }
+                // A rejected chunk counts as a failed attempt too, so a link that keeps corrupting
+                // data gives up instead of resending forever.
+                if (attempt >= retries) {
+                    throw new IOException("Server kept rejecting chunks of '" + remoteName + "'");
+                }
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                System.out.println("[!] Upload interrupted (" + e.getMessage() + "), resuming");
+            }
+            Thread.sleep(retryDelay(attempt));
+        }
+    }
+
+    /** @return true once the server has published the file, false when a chunk has to be resent */
+    private static boolean uploadAttempt(String host, int port, Path filePath, String remoteName)
+            throws IOException {
+        long fileSize = Files.size(filePath);
+        byte[] nameBytes = remoteName.getBytes("UTF-8");
+        try (Socket socket = new Socket(host, port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeByte('A');
+            out.writeInt(nameBytes.length);
+            out.writeLong(fileSize);
+            out.writeLong(Files.getLastModifiedTime(filePath).toMillis());
+            out.write(nameBytes);
+            out.flush();
+
+            if (in.readByte() != 0) {
+                throw new IOException("Another client is uploading '" + remoteName + "'");
+            }
+            long held = in.readLong();
+            if (held > 0) {
+                System.out.printf("[+] Server already holds %d of %d bytes, resuming%n", held, fileSize);
+            }
+            try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                ChecksummedChunks.send(out, file, held, fileSize - held);
+            }
+
+            byte status = in.readByte();
+            long value = in.readLong();
+            if (status == 3) {
+                System.out.printf("[!] Server rejected chunk at offset %d, resending from there%n", value);
+                return false;
+            }
+            System.out.printf("[+] Sent '%s' (%d bytes, resumable)%n", remoteName, value);
+            return true;
+        }
+    }
+
+    private static void downloadFileResumable(String host, int port, String remoteName, Path outputPath)
+            throws IOException, InterruptedException {
+        Path parent = outputPath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path partial = outputPath.resolveSibling(outputPath.getFileName() + ".partial");
+        Path identity = outputPath.resolveSibling(outputPath.getFileName() + ".partial.id");
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (downloadAttempt(host, port, remoteName, partial, identity)) {
+                    break;
+                }
+                if (attempt >= retries) {
+                    throw new IOException("Kept receiving bad chunks of '" + remoteName + "'");
+                }
+            } catch (FileNotFoundException e) {
+                System.err.println("[!] Server reported file not found: " + remoteName);
+                return;
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                System.out.println("[!] Download interrupted (" + e.getMessage() + "), resuming");
+            }
+            Thread.sleep(retryDelay(attempt));
+        }
+        Files.move(partial, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(identity);
+        System.out.printf("[+] Downloaded '%s' to '%s' (%d bytes, resumable)%n",
+                remoteName, outputPath, Files.size(outputPath));
+    }
+
+    /**
+     * The partial file is only resumed while the server's file has the size and modification time
+     * recorded in {@code identity} when the partial was started; otherwise the server sends it anew.
+     *
+     * @return true once the partial file is complete, false when a chunk has to be fetched again
+     */
+    private static boolean downloadAttempt(String host, int port, String remoteName, Path partial, Path identity)
+            throws IOException {
+        byte[] nameBytes = remoteName.getBytes("UTF-8");
+        long heldSize = -1;
+        long heldModified = -1;
+        if (Files.exists(identity)) {
+            String[] fields = Files.readString(identity).trim().split(" ");
+            try {
+                heldSize = Long.parseLong(fields[0]);
+                heldModified = Long.parseLong(fields[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                heldSize = -1; // unreadable, start over
+            }
+        }
+        try (Socket socket = new Socket(host, port);
+             FileChannel file = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            long held = heldSize < 0 ? 0 : file.size();
+            out.writeByte('G');
+            out.writeInt(nameBytes.length);
+            out.writeLong(held);
+            out.writeLong(heldSize);
+            out.writeLong(heldModified);
+            out.write(nameBytes);
+            out.flush();
+
+            if (in.readByte() != 0) {
+                throw new FileNotFoundException(remoteName);
+            }
+            long size = in.readLong();
+            long modified = in.readLong();
+            long start = in.readLong();
+            if (size != heldSize || modified != heldModified) {
+                if (held > 0) {
+                    System.out.println("[!] Remote file changed since the partial download, starting over");
+                }
+                start = 0; // the server has done the same
+                // Drop the old bytes before recording the new identity, so they are never taken for its.
+                file.truncate(0);
+                Files.writeString(identity, size + " " + modified);
+            }
+            file.truncate(start);
+            if (start > 0) {
+                System.out.printf("[+] Already have %d of %d bytes, resuming%n", start, size);
+            }
+            try {
+                ChecksummedChunks.receive(in, file, start, size - start);
+            } catch (ChecksummedChunks.ChecksumMismatchException e) {
+                file.truncate(e.offset());
+                System.out.printf("[!] Bad chunk at offset %d, fetching again from there%n", e.offset());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static long retryDelay(int attempt) {
+        return Math.min(MAX_RETRY_DELAY_MS, 1000L << Math.min(attempt, 4));
+    }
+
+    private static void runSession(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 9000;
+        if (!supports(host, port, Protocol.CAP_SESSION)) {
+            System.err.println("[!] Server does not support sessions; upload files one by one instead");
+            return;
+        }
+
+        if (args[0].equalsIgnoreCase("putdir")) {
+            Path dir = Paths.get(args[1]).toAbsolutePath();
+            if (!Files.isDirectory(dir)) {
+                System.err.println("Directory not found: " + dir);
+                return;
+            }
+            String remotePrefix = args.length > 4 ? args[4].replaceAll("/+$", "") + "/" : "";
+            sendDirectory(host, port, dir, remotePrefix);
+        } else {
+            Path listFile = Paths.get(args[1]).toAbsolutePath();
+            List<String> names = new ArrayList<>();
+            for (String line : Files.readAllLines(listFile)) {
+                if (!line.isBlank()) {
+                    names.add(line.trim());
+                }
+            }
+            Path outputDir = args.length > 4 ? Paths.get(args[4]).toAbsolutePath() : Paths.get("").toAbsolutePath();
+            downloadList(host, port, names, outputDir);
+        }
+    }
+
+    /** Streams every file under dir through one pipelined session, keeping relative paths. */
+    private static void sendDirectory(String host, int port, Path dir, String remotePrefix)
+            throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        String separator = dir.getFileSystem().getSeparator();
+        List<String> names = new ArrayList<>(files.size());
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            names.add(remotePrefix + dir.relativize(files.get(i)).toString().replace(separator, "/"));
+            sizes[i] = Files.size(files.get(i));
+        }
+
+        long startNanos = System.nanoTime();
+        try (Socket socket = new Socket(host, port)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), SESSION_BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), SESSION_BUFFER_SIZE));
+
+            // Requests go out on their own thread so the client never waits for a reply before sending more.
+            AtomicReference<IOException> sendError = new AtomicReference<>();
+            Thread sender = Thread.ofVirtual().start(() -> {
+                byte[] buffer = new byte[SESSION_BUFFER_SIZE];
+                try {
+                    out.writeByte('P');
+                    for (int i = 0; i < files.size(); i++) {
+                        Path file = files.get(i);
+                        byte[] nameBytes = names.get(i).getBytes("UTF-8");
+                        out.writeByte('U');
+                        out.writeInt(nameBytes.length);
+                        out.writeLong(sizes[i]);
+                        out.write(nameBytes);
+                        try (InputStream fileIn = Files.newInputStream(file)) {
+                            copyExactly(fileIn, out, sizes[i], buffer);
+                        }
+                    }
+                    out.writeByte('E');
+                    out.flush();
+                } catch (IOException e) {
+                    sendError.set(e);
+                    closeQuietly(socket);
+                }
+            });
+
+            int stored = 0;
+            long bytes = 0;
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    byte status = in.readByte();
+                    if (status == 0) {
+                        stored++;
+                        bytes += sizes[i];
+                    } else {
+                        System.out.printf("[!] %s: status %d%n", names.get(i), status);
+                    }
+                }
+            } catch (IOException e) {
+                sender.join();
+                throw sendError.get() != null ? sendError.get() : e;
+            }
+            sender.join();
+            if (sendError.get() != null) {
+                throw sendError.get();
+            }
+            printSessionSummary("Uploaded", stored, files.size(), bytes, startNanos);
+        }
+    }
+
+    /** Fetches every name through one pipelined session into outputDir. */
+    private static void downloadList(String host, int port, List<String> names, Path outputDir)
+            throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        try (Socket socket = new Socket(host, port)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), SESSION_BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), SESSION_BUFFER_SIZE));
+
+            AtomicReference<IOException> sendError = new AtomicReference<>();
+            Thread sender = Thread.ofVirtual().start(() -> {
+                try {
+                    out.writeByte('P');
+                    for (String name : names) {
+                        byte[] nameBytes = name.getBytes("UTF-8");
+                        out.writeByte('D');
+                        out.writeInt(nameBytes.length);
+                        out.write(nameBytes);
+                    }
+                    out.writeByte('E');
+                    out.flush();
+                } catch (IOException e) {
+                    sendError.set(e);
+                    closeQuietly(socket);
+                }
+            });
+
+            byte[] buffer = new byte[SESSION_BUFFER_SIZE];
+            int fetched = 0;
+            long bytes = 0;
+            try {
+                for (String name : names) {
+                    byte status = in.readByte();
+                    if (status != 0) {
+                        System.out.printf("[!] %s: status %d%n", name, status);
+                        continue;
+                    }
+                    long size = in.readLong();
+                    Path target = localTarget(outputDir, name);
+                    if (target == null) {
+                        System.out.println("[!] Skipping unsafe name: " + name);
+                        in.skipNBytes(size);
+                        continue;
+                    }
+                    Files.createDirectories(target.getParent());
+                    try (OutputStream fileOut = Files.newOutputStream(target)) {
+                        copyExactly(in, fileOut, size, buffer);
+                    }
+                    fetched++;
+                    bytes += size;
+                }
+            } catch (IOException e) {
+                sender.join();
+                throw sendError.get() != null ? sendError.get() : e;
+            }
+            sender.join();
+            printSessionSummary("Downloaded", fetched, names.size(), bytes, startNanos);
+        }
+    }
+
+    private static Path localTarget(Path outputDir, String name) {
+        try {
+            Path target = outputDir.resolve(name).normalize();
+            return target.startsWith(outputDir) && !target.equals(outputDir) ? target : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static void copyExactly(InputStream in, OutputStream out, long count, byte[] buffer) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Stream ended with " + remaining + " bytes left");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    private static void printSessionSummary(String verb, int done, int total, long bytes, long startNanos) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        System.out.printf("[+] %s %d of %d file(s), %d bytes in %.2f s (%.0f files/s)%n",
+                verb, done, total, bytes, seconds, done / seconds);
+    }
+
+    /** Asks the server for its capabilities; servers that predate the hello report none. */
+    private static boolean supports(String host, int port, int capability) {
+        try (Socket socket = new Socket(host, port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeByte('H');
+            out.flush();
+            if ((in.readInt() & capability) != 0) {
+                return true;
+            }
+        } catch (IOException e) {
+            // old server: it closes the connection on unknown operations
+        }
+        System.out.println("[!] Server does not support this mode, using a single stream");
+        return false;
+    }
+
+    private static int stripeCount(long fileSize) {
+        return (int) Math.max(1, Math.min(stripes, fileSize / MIN_STRIPE_SIZE));
+    }
+
+    private static <T> T await(Future<T> result) throws IOException, InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void send(FileChannel file, long position, long count, SocketChannel channel,
+            DataOutputStream out) throws IOException {
+        if (zeroCopy) {
+            ChannelTransfer.sendFile(file, position, count, channel);
+        } else {
+            ChannelTransfer.copyToStream(file, position, count, out);
+        }
+    }
+
+    private static void receive(SocketChannel channel, DataInputStream in, FileChannel file, long position,
+            long count) throws IOException {
+        if (zeroCopy) {
+            ChannelTransfer.receiveFile(channel, file, position, count);
+        } else {
+            ChannelTransfer.copyFromStream(in, file, position, count);
+        }
+    }
+
     private static void printUsage() {
         System.err.println("Upload: java Client upload <file_path> [host] [port] [remote_name]");
         System.err.println("Download: java Client download <remote_name> [host] [port] [output_path]");
+        System.err.println("Upload a tree: java Client putdir <dir> [host] [port] [remote_prefix]");
+        System.err.println("Download many: java Client getlist <name_list_file> [host] [port] [output_dir]");
         System.err.println("Default mode (no 'upload' word): first arg is file_path for upload.");
+        System.err.println("Options: --stream     copy through a heap buffer instead of zero-copy channels");
+        System.err.println("         --stripes=N  split large files over N parallel connections");
+        System.err.println("         --resume     checksum every chunk and continue interrupted transfers");
+        System.err.println("         --retries=N  reconnect attempts for --resume (default 5)");
+        System.err.println("         --compress[=LEVEL]  deflate blocks on the fly, level 1 (fast, default) to 9");
+        System.err.println("         --delta      upload only the parts that differ from the server's copy");
     }
 }
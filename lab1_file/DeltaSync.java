@@ -0,0 +1,305 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * rsync-style delta encoding for the 'Y' request. The server describes its copy of a file as
+ * fixed-size blocks, each with a rolling weak checksum and an MD5. The client slides a window
+ * over its new version one byte at a time, and whenever the window matches a server block it
+ * sends a reference to that block instead of the bytes. Everything else goes as literal data.
+ * The stream ends with a SHA-256 of the whole new file so the server can verify the rebuild.
+ */
+final class DeltaSync {
+    static final int OP_LITERAL = 'L';
+    static final int OP_BLOCK = 'B';
+    static final int OP_END = 'E';
+
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+    private static final int MAX_LITERAL = 64 * 1024;
+    private static final int STRONG_LENGTH = 16;
+    private static final int WINDOW_SIZE = 4 * MAX_BLOCK_SIZE + 2 * MAX_LITERAL;
+
+    /** Block signatures of the server's copy, sorted by weak checksum for lookup. */
+    static final class Signatures {
+        private final int blockSize;
+        private final int[] sortedWeak;
+        private final int[] sortedIndex;
+        private final byte[][] strong;
+        private final boolean[] tags = new boolean[1 << 16];
+
+        private Signatures(int blockSize, int[] weak, byte[][] strong) {
+            this.blockSize = blockSize;
+            this.strong = strong;
+            long[] packed = new long[weak.length];
+            for (int i = 0; i < weak.length; i++) {
+                packed[i] = ((long) weak[i] << 32) | i;
+                tags[tag(weak[i])] = true;
+            }
+            Arrays.sort(packed);
+            sortedWeak = new int[weak.length];
+            sortedIndex = new int[weak.length];
+            for (int i = 0; i < packed.length; i++) {
+                sortedWeak[i] = (int) (packed[i] >> 32);
+                sortedIndex[i] = (int) packed[i];
+            }
+        }
+
+        int blockSize() {
+            return blockSize;
+        }
+
+        int blockCount() {
+            return strong.length;
+        }
+
+        /** Returns the index of a block with this content, or -1. */
+        private int find(int weak, byte[] data, int offset, MessageDigest md5) {
+            if (!tags[tag(weak)]) {
+                return -1;
+            }
+            int at = Arrays.binarySearch(sortedWeak, weak);
+            if (at < 0) {
+                return -1;
+            }
+            while (at > 0 && sortedWeak[at - 1] == weak) {
+                at--;
+            }
+            md5.update(data, offset, blockSize);
+            byte[] digest = md5.digest();
+            for (; at < sortedWeak.length && sortedWeak[at] == weak; at++) {
+                if (Arrays.equals(strong[sortedIndex[at]], digest)) {
+                    return sortedIndex[at];
+                }
+            }
+            return -1;
+        }
+
+        private static int tag(int weak) {
+            return (weak ^ (weak >>> 16)) & 0xffff;
+        }
+    }
+
+    /** Byte counts of a delta upload. */
+    record Stats(long matched, long literal) {
+    }
+
+    private DeltaSync() {
+    }
+
+    static int blockSizeFor(long basisSize) {
+        long root = (long) Math.sqrt((double) basisSize);
+        long aligned = (root + 1023) / 1024 * 1024;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, aligned));
+    }
+
+    /** rsync's weak checksum: two 16-bit running sums packed into one int. */
+    static int weakChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static int roll(int weak, int blockSize, byte outByte, byte inByte) {
+        int out = outByte & 0xff;
+        int a = ((weak & 0xffff) - out + (inByte & 0xff)) & 0xffff;
+        int b = ((weak >>> 16) - blockSize * out + a) & 0xffff;
+        return a | (b << 16);
+    }
+
+    /** Writes int block size, int block count, then int weak and 16-byte MD5 per block. */
+    static void writeSignatures(FileChannel basis, int blockSize, DataOutputStream out) throws IOException {
+        long size = basis == null ? 0 : basis.size();
+        int count = (int) ((size + blockSize - 1) / blockSize);
+        out.writeInt(blockSize);
+        out.writeInt(count);
+        MessageDigest md5 = digest("MD5");
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < count; i++) {
+            long offset = (long) i * blockSize;
+            int length = readFully(basis, offset, block, (int) Math.min(blockSize, size - offset));
+            out.writeInt(weakChecksum(block, 0, length));
+            md5.update(block, 0, length);
+            out.write(md5.digest());
+        }
+        out.flush();
+    }
+
+    static Signatures readSignatures(DataInputStream in) throws IOException {
+        int blockSize = in.readInt();
+        int count = in.readInt();
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || count < 0) {
+            throw new IOException("Bad signature header: block size " + blockSize + ", count " + count);
+        }
+        int[] weak = new int[count];
+        byte[][] strong = new byte[count][STRONG_LENGTH];
+        for (int i = 0; i < count; i++) {
+            weak[i] = in.readInt();
+            in.readFully(strong[i]);
+        }
+        return new Signatures(blockSize, weak, strong);
+    }
+
+    /** Encodes the new file against the signatures and writes the instruction stream. */
+    static Stats sendDelta(FileChannel file, long size, Signatures signatures, DataOutputStream out)
+            throws IOException {
+        int blockSize = signatures.blockSize();
+        boolean haveBlocks = signatures.blockCount() > 0;
+        MessageDigest md5 = digest("MD5");
+        MessageDigest whole = digest("SHA-256");
+        byte[] window = new byte[WINDOW_SIZE];
+        long windowStart = 0; // file offset of window[0]
+        int windowEnd = 0; // valid bytes in window
+        long pos = 0; // start of the block being tested
+        long literalStart = 0;
+        long matched = 0;
+        long literal = 0;
+        int weak = 0;
+        boolean weakValid = false;
+
+        while (haveBlocks && size - pos >= blockSize) {
+            // The window must hold the block under test plus one byte of lookahead for rolling.
+            long needed = pos + blockSize + (pos + blockSize < size ? 1 : 0);
+            if (needed > windowStart + windowEnd) {
+                int keep = (int) (windowStart + windowEnd - literalStart);
+                System.arraycopy(window, (int) (literalStart - windowStart), window, 0, keep);
+                windowStart = literalStart;
+                windowEnd = keep + readFully(file, windowStart + keep, window, keep,
+                        (int) Math.min(window.length - keep, size - windowStart - keep));
+            }
+            int at = (int) (pos - windowStart);
+            if (!weakValid) {
+                weak = weakChecksum(window, at, blockSize);
+                weakValid = true;
+            }
+            int block = signatures.find(weak, window, at, md5);
+            if (block >= 0) {
+                literal += flushLiteral(out, window, (int) (literalStart - windowStart),
+                        (int) (pos - literalStart), whole);
+                out.writeByte(OP_BLOCK);
+                out.writeInt(block);
+                whole.update(window, at, blockSize);
+                matched += blockSize;
+                pos += blockSize;
+                literalStart = pos;
+                weakValid = false;
+                continue;
+            }
+            if (pos + blockSize < size) {
+                weak = roll(weak, blockSize, window[at], window[at + blockSize]);
+            }
+            pos++;
+            if (pos - literalStart >= MAX_LITERAL) {
+                literal += flushLiteral(out, window, (int) (literalStart - windowStart),
+                        (int) (pos - literalStart), whole);
+                literalStart = pos;
+            }
+        }
+
+        // Whatever is left after the last full window goes out as literal data.
+        byte[] tail = new byte[MAX_LITERAL];
+        long offset = literalStart;
+        while (offset < size) {
+            int length = readFully(file, offset, tail, (int) Math.min(tail.length, size - offset));
+            literal += flushLiteral(out, tail, 0, length, whole);
+            offset += length;
+        }
+        out.writeByte(OP_END);
+        out.write(whole.digest());
+        out.flush();
+        return new Stats(matched, literal);
+    }
+
+    /**
+     * Rebuilds the new file into {@code target} from the instruction stream.
+     *
+     * @return true when the rebuilt file has the expected size and SHA-256
+     */
+    static boolean applyDelta(DataInputStream in, FileChannel basis, int blockSize, FileChannel target, long newSize)
+            throws IOException {
+        long basisSize = basis == null ? 0 : basis.size();
+        MessageDigest whole = digest("SHA-256");
+        byte[] buffer = new byte[Math.max(blockSize, MAX_LITERAL)];
+        long written = 0;
+        while (true) {
+            int op = in.readByte();
+            int length;
+            if (op == OP_LITERAL) {
+                length = in.readInt();
+                if (length <= 0 || length > MAX_LITERAL) {
+                    throw new IOException("Bad literal length " + length);
+                }
+                in.readFully(buffer, 0, length);
+            } else if (op == OP_BLOCK) {
+                int block = in.readInt();
+                long offset = (long) block * blockSize;
+                if (block < 0 || offset >= basisSize) {
+                    throw new IOException("Bad block reference " + block);
+                }
+                length = readFully(basis, offset, buffer, (int) Math.min(blockSize, basisSize - offset));
+            } else if (op == OP_END) {
+                byte[] expected = new byte[32];
+                in.readFully(expected);
+                return written == newSize && MessageDigest.isEqual(expected, whole.digest());
+            } else {
+                throw new IOException("Unknown delta instruction " + op);
+            }
+            if (written + length > newSize) {
+                throw new IOException("Delta produces more than " + newSize + " bytes");
+            }
+            whole.update(buffer, 0, length);
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+            while (chunk.hasRemaining()) {
+                target.write(chunk, written + chunk.position());
+            }
+            written += length;
+        }
+    }
+
+    private static long flushLiteral(DataOutputStream out, byte[] data, int offset, int length, MessageDigest whole)
+            throws IOException {
+        int done = 0;
+        while (done < length) {
+            int piece = Math.min(MAX_LITERAL, length - done);
+            out.writeByte(OP_LITERAL);
+            out.writeInt(piece);
+            out.write(data, offset + done, piece);
+            whole.update(data, offset + done, piece);
+            done += piece;
+        }
+        return length;
+    }
+
+    private static int readFully(FileChannel file, long position, byte[] target, int length) throws IOException {
+        return readFully(file, position, target, 0, length);
+    }
+
+    private static int readFully(FileChannel file, long position, byte[] target, int offset, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(target, offset, length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position() - offset) == -1) {
+                throw new IOException("File ended at offset " + (position + buffer.position() - offset));
+            }
+        }
+        return length;
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not available", e);
+        }
+    }
+}
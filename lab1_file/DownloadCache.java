@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bounded in-memory cache of files served by downloads, evicted least-recently-used within a
+ * byte budget. Contents live in off-heap direct buffers rather than mappings of the files, so an
+ * upload that truncates a file in place can never invalidate memory a download is reading.
+ * Uploads call {@link #invalidate} after they publish a file; files changed behind the server's
+ * back stay cached until evicted.
+ */
+final class DownloadCache {
+    private final long budget;
+    private final long maxEntry;
+    private final LinkedHashMap<Path, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, CompletableFuture<ByteBuffer>> loading = new HashMap<>();
+    private long used;
+
+    DownloadCache(long budget) {
+        this.budget = budget;
+        this.maxEntry = Math.min(budget / 4, Integer.MAX_VALUE);
+    }
+
+    boolean enabled() {
+        return budget > 0;
+    }
+
+    /**
+     * Returns the file's contents as a fresh read-only view, loading it on a miss, or null when the
+     * file is missing or too large to cache.
+     */
+    ByteBuffer get(Path file) throws IOException {
+        if (!enabled()) {
+            return null;
+        }
+        CompletableFuture<ByteBuffer> load;
+        boolean owner = false;
+        synchronized (this) {
+            ByteBuffer hit = entries.get(file);
+            if (hit != null) {
+                return hit.duplicate();
+            }
+            load = loading.get(file);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                loading.put(file, load);
+                owner = true;
+            }
+        }
+
+        if (!owner) {
+            // Another request is already reading this file; share its result.
+            try {
+                ByteBuffer shared = load.get();
+                return shared == null ? null : shared.duplicate();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the cache", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+
+        ByteBuffer loaded = null;
+        try {
+            loaded = read(file);
+            load.complete(loaded);
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                // Invalidation unregisters a load of the file; such a load may hold old bytes.
+                if (loading.remove(file, load) && loaded != null) {
+                    put(file, loaded);
+                }
+            }
+        }
+        return loaded == null ? null : loaded.duplicate();
+    }
+
+    /**
+     * Drops the file's cached contents and any load of it in progress, so requests from now on read
+     * the file afresh. Requests already waiting for that load still get what it reads.
+     */
+    synchronized void invalidate(Path file) {
+        loading.remove(file);
+        ByteBuffer removed = entries.remove(file);
+        if (removed != null) {
+            used -= removed.capacity();
+        }
+    }
+
+    private ByteBuffer read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxEntry) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) == -1) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    private void put(Path file, ByteBuffer buffer) {
+        ByteBuffer previous = entries.put(file, buffer);
+        if (previous != null) {
+            used -= previous.capacity();
+        }
+        used += buffer.capacity();
+        Iterator<ByteBuffer> eldest = entries.values().iterator();
+        while (used > budget && eldest.hasNext()) {
+            used -= eldest.next().capacity();
+            eldest.remove();
+        }
+    }
+}
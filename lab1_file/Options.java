@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits command line arguments into positional values and {@code --name[=value]} flags,
+ * so new switches can be added without disturbing the existing positional arguments.
+ */
+final class Options {
+    private final Map<String, String> flags = new HashMap<>();
+    private final List<String> positional = new ArrayList<>();
+
+    private Options() {
+    }
+
+    static Options parse(String[] args) {
+        Options options = new Options();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.length() > 2) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    options.flags.put(arg.substring(2), "true");
+                } else {
+                    options.flags.put(arg.substring(2, eq), arg.substring(eq + 1));
+                }
+            } else {
+                options.positional.add(arg);
+            }
+        }
+        return options;
+    }
+
+    String[] positional() {
+        return positional.toArray(new String[0]);
+    }
+
+    boolean has(String name) {
+        return flags.containsKey(name);
+    }
+
+    String get(String name, String defaultValue) {
+        return flags.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = flags.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    long getLong(String name, long defaultValue) {
+        String value = flags.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
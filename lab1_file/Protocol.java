@@ -0,0 +1,26 @@
+/**
+ * Capability bits exchanged in the 'H' hello request. A client sends 'H' and the server answers
+ * with an int holding the features it supports; servers that predate the hello close the
+ * connection instead, which clients treat as "no optional features".
+ */
+final class Protocol {
+    /** 'S' striped upload and 'R' range download requests. */
+    static final int CAP_STRIPED = 1;
+
+    /** 'A' resumable upload and 'G' resumable download requests with CRC32C-checked chunks. */
+    static final int CAP_RESUME = 2;
+
+    /** 'P' pipelined sessions carrying many 'U'/'D' requests over one connection. */
+    static final int CAP_SESSION = 4;
+
+    /** 'Z' requests that wrap a 'U' or 'D' with block-compressed file data. */
+    static final int CAP_COMPRESS = 8;
+
+    /** 'Y' delta uploads against the server's current copy of a file. */
+    static final int CAP_DELTA = 16;
+
+    static final int SERVER_CAPABILITIES = CAP_STRIPED | CAP_RESUME | CAP_SESSION | CAP_COMPRESS | CAP_DELTA;
+
+    private Protocol() {
+    }
+}
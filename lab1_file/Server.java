@@ -1,103 +1,695 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 public class Server {
-    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int DEFAULT_MAX_CONNECTIONS = 1024;
+    private static final long SHUTDOWN_GRACE_SECONDS = 30;
+    private static final int SESSION_BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+    private static final StripedUploads stripedUploads = new StripedUploads();
+    private static final Set<Path> resumingUploads = ConcurrentHashMap.newKeySet();
+
+    private static volatile boolean running = true;
+    private static boolean zeroCopy = true;
+    private static DownloadCache downloadCache;
+    private static final ServerMetrics metrics = new ServerMetrics();
+    private static ServerLog log = new ServerLog(ServerLog.Mode.SYNC);
 
     public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        args = options.positional();
+        zeroCopy = !options.has("stream");
+        downloadCache = new DownloadCache(options.getLong("cache-bytes", DEFAULT_CACHE_BYTES));
+        log = new ServerLog(ServerLog.parseMode(options.get("log", "async")));
+
         String host = args.length > 0 ? args[0] : "0.0.0.0";
         int port = args.length > 1 ? Integer.parseInt(args[1]) : 9000;
         String outputDir = args.length > 2 ? args[2] : "received_files";
+        int maxConnections = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MAX_CONNECTIONS;
 
         Path outDir = Paths.get(outputDir).toAbsolutePath();
         Files.createDirectories(outDir);
 
-        try (ServerSocket serverSocket =
-                new ServerSocket(port, 1, InetAddress.getByName(host))) {
-            System.out.println("[+] Listening on " + host + ":" + port + ", saving to " + outDir);
-            try (Socket socket = serverSocket.accept()) {
-                System.out.println("[+] Connected: " + socket.getInetAddress() + ":" + socket.getPort());
-                handleClient(socket, outDir);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(host, port), ACCEPT_BACKLOG);
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        // Connections beyond the limit wait in the accept backlog instead of being refused.
+        Semaphore slots = new Semaphore(maxConnections);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(serverChannel, workers)));
+
+        if (options.has("metrics-port")) {
+            int metricsPort = options.getInt("metrics-port", 0);
+            metrics.startHttp(metricsPort, log);
+            log.info("Metrics at http://127.0.0.1:%d/metrics", metricsPort);
+        }
+        log.info("Listening on %s:%d (max %d connections, %s, %d MiB download cache), saving to %s",
+                host, port, maxConnections, zeroCopy ? "zero-copy" : "stream copy",
+                options.getLong("cache-bytes", DEFAULT_CACHE_BYTES) >> 20, outDir);
+        while (running) {
+            slots.acquire();
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (AsynchronousCloseException e) {
+                slots.release();
+                if (!running) {
+                    break;
+                }
+                throw e;
             }
+            workers.execute(() -> serve(channel, outDir, slots));
         }
     }
 
-    private static void handleClient(Socket socket, Path outDir) throws IOException {
+    private static void serve(SocketChannel channel, Path outDir, Semaphore slots) {
+        Socket socket = channel.socket();
+        String peer = socket.getInetAddress() + ":" + socket.getPort();
+        boolean failed = true;
+        metrics.connectionOpened(socket.getInetAddress());
+        try (channel) {
+            log.info("Connected: %s", peer);
+            handleClient(channel, outDir);
+            failed = false;
+        } catch (IOException e) {
+            String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            log.warn("%s: %s", peer, reason);
+        } finally {
+            metrics.connectionClosed(failed);
+            slots.release();
+        }
+    }
+
+    private static void shutdown(ServerSocketChannel serverChannel, ExecutorService workers) {
+        running = false;
+        log.info("Shutting down, waiting for active transfers");
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Transfers still running after grace period, aborting them");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private static void handleClient(SocketChannel channel, Path outDir) throws IOException {
+        Socket socket = channel.socket();
         DataInputStream in = new DataInputStream(socket.getInputStream());
         DataOutputStream out = new DataOutputStream(socket.getOutputStream());
 
         byte op = in.readByte();
+        metrics.operation(op);
         if (op == 'U') {
-            handleUpload(in, out, outDir);
+            handleUpload(channel, in, out, outDir);
         } else if (op == 'D') {
-            handleDownload(in, out, outDir);
+            handleDownload(channel, in, out, outDir);
+        } else if (op == 'H') {
+            out.writeInt(Protocol.SERVER_CAPABILITIES);
+            out.flush();
+        } else if (op == 'S') {
+            handleStripeUpload(channel, in, out, outDir);
+        } else if (op == 'R') {
+            handleRangeDownload(channel, in, out, outDir);
+        } else if (op == 'A') {
+            handleResumableUpload(in, out, outDir);
+        } else if (op == 'G') {
+            handleResumableDownload(in, out, outDir);
+        } else if (op == 'P') {
+            handleSession(socket, outDir);
+        } else if (op == 'Z') {
+            handleCompressed(in, out, outDir);
+        } else if (op == 'Y') {
+            handleDeltaUpload(socket, in, out, outDir);
         } else {
-            System.out.println("[!] Unknown operation: " + (char) op);
+            log.warn("Unknown operation: %c", (char) op);
         }
     }
 
-    private static void handleUpload(DataInputStream in, DataOutputStream out, Path outDir) throws IOException {
+    private static void handleUpload(SocketChannel channel, DataInputStream in, DataOutputStream out, Path outDir)
+            throws IOException {
         int nameLength = in.readInt();
         long fileSize = in.readLong();
 
         byte[] nameBytes = in.readNBytes(nameLength);
-        String rawName = new String(nameBytes, "UTF-8");
-        String safeName = Paths.get(rawName).getFileName().toString();
-        Path destination = outDir.resolve(safeName);
+        Path destination = resolve(outDir, nameBytes);
 
-        long remaining = fileSize;
-        byte[] buffer = new byte[CHUNK_SIZE];
-        try (BufferedOutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(destination))) {
-            while (remaining > 0) {
-                int toRead = (int) Math.min(buffer.length, remaining);
-                int read = in.read(buffer, 0, toRead);
-                if (read == -1) {
-                    throw new IOException("Client disconnected with " + remaining + " bytes left");
-                }
-                fileOut.write(buffer, 0, read);
-                remaining -= read;
-            }
+        try (FileChannel file = FileChannel.open(destination, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            receive(channel, in, file, 0, fileSize);
+        } finally {
+            downloadCache.invalidate(destination);
         }
 
-        System.out.printf("[+] Received '%s' (%d bytes)%n", destination.getFileName(), fileSize);
+        log.info("Received '%s' (%d bytes)", destination.getFileName(), fileSize);
         out.write(("OK " + destination.getFileName() + " " + fileSize + " bytes\n").getBytes("UTF-8"));
         out.flush();
     }
 
-    private static void handleDownload(DataInputStream in, DataOutputStream out, Path outDir) throws IOException {
+    private static void handleDownload(SocketChannel channel, DataInputStream in, DataOutputStream out, Path outDir)
+            throws IOException {
         int nameLength = in.readInt();
         byte[] nameBytes = in.readNBytes(nameLength);
-        String rawName = new String(nameBytes, "UTF-8");
-        Path filePath = outDir.resolve(Paths.get(rawName).getFileName().toString());
+        Path filePath = resolve(outDir, nameBytes);
+
+        // Cache hits skip the stat calls and the disk entirely.
+        ByteBuffer cached = downloadCache.get(filePath);
+        if (cached != null) {
+            long size = cached.remaining();
+            out.writeByte(0); // ok
+            out.writeLong(size);
+            out.flush();
+            send(cached, channel, out);
+            log.info("Sent '%s' (%d bytes, cached)", filePath.getFileName(), size);
+            return;
+        }
 
         if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
             out.writeByte(1); // not found
             out.flush();
-            System.out.println("[!] Download requested but file not found: " + filePath);
+            metrics.notFound();
+            log.warn("Download requested but file not found: %s", filePath);
             return;
         }
 
         long size = Files.size(filePath);
         out.writeByte(0); // ok
         out.writeLong(size);
+        out.flush();
 
-        byte[] buffer = new byte[CHUNK_SIZE];
-        try (var fileIn = Files.newInputStream(filePath)) {
-            int read;
-            while ((read = fileIn.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            send(file, 0, size, channel, out);
+        }
+
+        log.info("Sent '%s' (%d bytes)", filePath.getFileName(), size);
+    }
+
+    /**
+     * 'S': int name length, long file size, long transfer id, long offset, long length, name, then
+     * the range bytes. Replies with a status byte: 0 stored, 2 stored and the file is now complete.
+     */
+    private static void handleStripeUpload(SocketChannel channel, DataInputStream in, DataOutputStream out,
+            Path outDir) throws IOException {
+        int nameLength = in.readInt();
+        long fileSize = in.readLong();
+        long transferId = in.readLong();
+        long offset = in.readLong();
+        long length = in.readLong();
+        byte[] nameBytes = in.readNBytes(nameLength);
+        Path destination = resolve(outDir, nameBytes);
+
+        if (offset < 0 || length < 0 || offset + length > fileSize) {
+            throw new IOException("Bad stripe [" + offset + ", +" + length + ") for " + fileSize + " bytes");
+        }
+
+        StripedUploads.Upload upload = stripedUploads.begin(destination, transferId, fileSize);
+        try {
+            receive(channel, in, upload.file(), offset, length);
+        } catch (IOException e) {
+            stripedUploads.abort(upload);
+            throw e;
+        }
+        boolean published = stripedUploads.complete(upload, offset, length);
+
+        if (published) {
+            downloadCache.invalidate(destination);
+            log.info("Received '%s' (%d bytes, striped)", destination.getFileName(), fileSize);
+        }
+        out.writeByte(published ? 2 : 0);
+        out.flush();
+    }
+
+    /**
+     * 'R': int name length, long offset, long length, name. Replies with a status byte (0 ok,
+     * 1 not found), the long file size and the long number of bytes that follow.
+     */
+    private static void handleRangeDownload(SocketChannel channel, DataInputStream in, DataOutputStream out,
+            Path outDir) throws IOException {
+        int nameLength = in.readInt();
+        long offset = in.readLong();
+        long length = in.readLong();
+        byte[] nameBytes = in.readNBytes(nameLength);
+        Path filePath = resolve(outDir, nameBytes);
+
+        ByteBuffer cached = downloadCache.get(filePath);
+        if (cached != null) {
+            long size = cached.remaining();
+            int start = (int) Math.min(Math.max(offset, 0), size);
+            int count = (int) Math.min(Math.max(length, 0), size - start);
+            out.writeByte(0); // ok
+            out.writeLong(size);
+            out.writeLong(count);
+            out.flush();
+            send(cached.position(start).limit(start + count), channel, out);
+            return;
+        }
+
+        if (!Files.isRegularFile(filePath)) {
+            out.writeByte(1); // not found
+            out.flush();
+            metrics.notFound();
+            log.warn("Range requested but file not found: %s", filePath);
+            return;
+        }
+
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = file.size();
+            long start = Math.min(Math.max(offset, 0), size);
+            long count = Math.min(Math.max(length, 0), size - start);
+            out.writeByte(0); // ok
+            out.writeLong(size);
+            out.writeLong(count);
+            out.flush();
+            send(file, start, count, channel, out);
+        }
+    }
+
+    /**
+     * 'A': int name length, long file size, long modification time, name. Replies with a status byte
+     * (0 ok, 4 busy) and the long offset to resume from, then reads checksummed chunks up to the file
+     * size. Verified bytes are kept in a hidden partial file between attempts. The final reply is a status byte: 0 and
+     * the long size once the file is published, or 3 and the long offset of the first bad chunk.
+     */
+    private static void handleResumableUpload(DataInputStream in, DataOutputStream out, Path outDir)
+            throws IOException {
+        int nameLength = in.readInt();
+        long fileSize = in.readLong();
+        long modified = in.readLong();
+        byte[] nameBytes = in.readNBytes(nameLength);
+        Path destination = resolve(outDir, nameBytes);
+        // The partial is keyed on the client file's size and modification time, so only another
+        // attempt at the same unchanged file resumes it; a changed file starts a partial of its own.
+        Path partial = destination.resolveSibling(
+                "." + destination.getFileName() + "." + fileSize + "-" + modified + ".partial");
+
+        if (!resumingUploads.add(partial)) {
+            out.writeByte(4); // busy
+            out.flush();
+            return;
+        }
+        try {
+            long held;
+            try (FileChannel file = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                held = Math.min(file.size(), fileSize);
+                file.truncate(held);
+                out.writeByte(0); // ok
+                out.writeLong(held);
+                out.flush();
+                if (held > 0) {
+                    log.info("Resuming '%s' at %d of %d bytes",
+                            destination.getFileName(), held, fileSize);
+                }
+                try {
+                    ChecksummedChunks.receive(in, file, held, fileSize - held);
+                    metrics.received(fileSize - held);
+                } catch (ChecksummedChunks.ChecksumMismatchException e) {
+                    metrics.received(e.offset() - held);
+                    file.truncate(e.offset());
+                    log.warn("Bad chunk in '%s' at offset %d", destination.getFileName(), e.offset());
+                    out.writeByte(3); // checksum mismatch
+                    out.writeLong(e.offset());
+                    out.flush();
+                    return;
+                }
             }
+            Files.move(partial, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            downloadCache.invalidate(destination);
+            deleteStalePartials(destination);
+        } finally {
+            resumingUploads.remove(partial);
         }
+
+        log.info("Received '%s' (%d bytes, resumable)", destination.getFileName(), fileSize);
+        out.writeByte(0); // ok
+        out.writeLong(fileSize);
         out.flush();
+    }
+
+    /** Removes partials left by earlier versions of a file that has now been published. */
+    private static void deleteStalePartials(Path destination) throws IOException {
+        Pattern partialName = Pattern.compile(
+                Pattern.quote("." + destination.getFileName() + ".") + "\\d+--?\\d+\\.partial");
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(destination.getParent(),
+                entry -> partialName.matcher(entry.getFileName().toString()).matches())) {
+            for (Path stale : siblings) {
+                if (!resumingUploads.contains(stale)) {
+                    Files.deleteIfExists(stale);
+                }
+            }
+        }
+    }
 
-        System.out.printf("[+] Sent '%s' (%d bytes)%n", filePath.getFileName(), size);
+    /**
+     * 'G': int name length, long offset, long size and long modification time of the file the client
+     * holds a part of (-1 for none), name. Replies with a status byte (0 ok, 1 not found), the long
+     * file size, the long modification time and the long offset the data starts at, then checksummed
+     * chunks up to the end of the file. The data restarts at 0 if the file is not the one the client
+     * holds a part of.
+     */
+    private static void handleResumableDownload(DataInputStream in, DataOutputStream out, Path outDir)
+            throws IOException {
+        int nameLength = in.readInt();
+        long offset = in.readLong();
+        long heldSize = in.readLong();
+        long heldModified = in.readLong();
+        byte[] nameBytes = in.readNBytes(nameLength);
+        Path filePath = resolve(outDir, nameBytes);
+
+        if (!Files.isRegularFile(filePath)) {
+            out.writeByte(1); // not found
+            out.flush();
+            metrics.notFound();
+            log.warn("Download requested but file not found: %s", filePath);
+            return;
+        }
+
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = file.size();
+            long modified = Files.getLastModifiedTime(filePath).toMillis();
+            boolean sameFile = heldSize == size && heldModified == modified;
+            long start = sameFile ? Math.min(Math.max(offset, 0), size) : 0;
+            out.writeByte(0); // ok
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(start);
+            out.flush();
+            ChecksummedChunks.send(out, file, start, size - start);
+            metrics.sent(size - start);
+            log.info("Sent '%s' (%d of %d bytes, resumable)",
+                    filePath.getFileName(), size - start, size);
+        }
+    }
+
+    /**
+     * 'Z': byte inner operation ('U' or 'D'), byte compression level (0-9), then the usual header of
+     * that operation. File data in either direction is framed by {@link BlockCompression}; replies
+     * are the same as for the plain request.
+     */
+    private static void handleCompressed(DataInputStream in, DataOutputStream out, Path outDir)
+            throws IOException {
+        byte inner = in.readByte();
+        int level = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, in.readByte()));
+        int nameLength = in.readInt();
+        if (inner == 'U') {
+            long fileSize = in.readLong();
+            Path destination = resolve(outDir, in.readNBytes(nameLength));
+            try (FileChannel file = FileChannel.open(destination, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                BlockCompression.receive(in, file, fileSize);
+                metrics.received(fileSize);
+            } finally {
+                downloadCache.invalidate(destination);
+            }
+            log.info("Received '%s' (%d bytes, compressed)", destination.getFileName(), fileSize);
+            out.write(("OK " + destination.getFileName() + " " + fileSize + " bytes\n").getBytes("UTF-8"));
+            out.flush();
+        } else if (inner == 'D') {
+            Path filePath = resolve(outDir, in.readNBytes(nameLength));
+            if (!Files.isRegularFile(filePath)) {
+                out.writeByte(1); // not found
+                out.flush();
+                metrics.notFound();
+                log.warn("Download requested but file not found: %s", filePath);
+                return;
+            }
+            try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                long size = file.size();
+                out.writeByte(0); // ok
+                out.writeLong(size);
+                long wire = BlockCompression.send(file, size, level, out);
+                metrics.sent(size);
+                log.info("Sent '%s' (%d bytes, %d compressed)", filePath.getFileName(), size, wire);
+            }
+        } else {
+            log.warn("Unknown compressed operation: %c", (char) inner);
+        }
+    }
+
+    /**
+     * 'Y': int name length, long new size, name. The server answers with the {@link DeltaSync}
+     * signatures of its current copy (none if it has no copy), then reads the delta instructions,
+     * rebuilds the new version into a temp file and swaps it in atomically. The final reply is a
+     * status byte (0 ok, 3 verification failed) and the long size.
+     */
+    private static void handleDeltaUpload(Socket socket, DataInputStream in, DataOutputStream out, Path outDir)
+            throws IOException {
+        int nameLength = in.readInt();
+        long newSize = in.readLong();
+        Path destination = resolve(outDir, in.readNBytes(nameLength));
+        Path temp = destination.resolveSibling("." + destination.getFileName() + "."
+                + Long.toHexString(Thread.currentThread().threadId()) + ".delta");
+
+        boolean verified;
+        try (FileChannel basis = Files.isRegularFile(destination)
+                ? FileChannel.open(destination, StandardOpenOption.READ) : null;
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int blockSize = DeltaSync.blockSizeFor(basis == null ? 0 : basis.size());
+            DataOutputStream signaturesOut = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), SESSION_BUFFER_SIZE));
+            DataInputStream deltaIn = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), SESSION_BUFFER_SIZE));
+            DeltaSync.writeSignatures(basis, blockSize, signaturesOut);
+            verified = DeltaSync.applyDelta(deltaIn, basis, blockSize, target, newSize);
+            metrics.received(newSize);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        if (verified) {
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            downloadCache.invalidate(destination);
+            log.info("Received '%s' (%d bytes, delta)", destination.getFileName(), newSize);
+        } else {
+            Files.deleteIfExists(temp);
+            log.warn("Delta for '%s' failed verification", destination.getFileName());
+        }
+        out.writeByte(verified ? 0 : 3);
+        out.writeLong(newSize);
+        out.flush();
+    }
+
+    /**
+     * 'P': keeps the connection open for a pipelined batch of requests, answered strictly in order.
+     * Each request is 'U' (int name length, long size, name, bytes; reply: status byte) or 'D' (int name
+     * length, name; reply: status byte, then long size and bytes when ok), and 'E' ends the session.
+     * Names may contain '/' to place files in subdirectories of the output directory. Status bytes are
+     * 0 ok, 1 not found, 2 rejected or failed.
+     */
+    private static void handleSession(Socket socket, Path outDir) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream(), SESSION_BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), SESSION_BUFFER_SIZE));
+        byte[] buffer = new byte[SESSION_BUFFER_SIZE];
+        int uploads = 0;
+        int downloads = 0;
+        while (true) {
+            if (in.available() == 0) {
+                // Replies are batched until the client stops sending, then pushed out before blocking.
+                out.flush();
+            }
+            int op = in.read();
+            if (op == -1 || op == 'E') {
+                break;
+            }
+            int nameLength = in.readInt();
+            if (op == 'U') {
+                long size = in.readLong();
+                String name = new String(in.readNBytes(nameLength), "UTF-8");
+                out.writeByte(sessionUpload(in, outDir, name, size, buffer) ? 0 : 2);
+                uploads++;
+            } else if (op == 'D') {
+                String name = new String(in.readNBytes(nameLength), "UTF-8");
+                sessionDownload(out, outDir, name, buffer);
+                downloads++;
+            } else {
+                throw new IOException("Unknown session operation: " + (char) op);
+            }
+        }
+        out.flush();
+        log.info("Session finished: %d upload(s), %d download(s)", uploads, downloads);
+    }
+
+    /** Stores one pipelined upload; the payload is always consumed so the session stays in sync. */
+    private static boolean sessionUpload(InputStream in, Path outDir, String name, long size, byte[] buffer)
+            throws IOException {
+        Path destination = resolveRelative(outDir, name);
+        OutputStream fileOut = null;
+        if (destination != null) {
+            try {
+                Files.createDirectories(destination.getParent());
+                fileOut = Files.newOutputStream(destination);
+            } catch (IOException e) {
+                log.warn("Cannot store '%s': %s", name, e.getMessage());
+            }
+        } else {
+            log.warn("Rejected upload name: %s", name);
+        }
+
+        boolean stored = fileOut != null;
+        long remaining = size;
+        try {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Client disconnected with " + remaining + " bytes left");
+                }
+                if (stored) {
+                    try {
+                        fileOut.write(buffer, 0, read);
+                    } catch (IOException e) {
+                        log.warn("Cannot store '%s': %s", name, e.getMessage());
+                        stored = false;
+                    }
+                }
+                remaining -= read;
+            }
+            metrics.received(size);
+        } finally {
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (IOException e) {
+                    stored = false;
+                }
+                downloadCache.invalidate(destination);
+            }
+        }
+        return stored;
+    }
+
+    private static void sessionDownload(DataOutputStream out, Path outDir, String name, byte[] buffer)
+            throws IOException {
+        Path filePath = resolveRelative(outDir, name);
+        ByteBuffer cached = filePath == null ? null : downloadCache.get(filePath);
+        if (cached != null) {
+            out.writeByte(0); // ok
+            out.writeLong(cached.remaining());
+            metrics.sent(cached.remaining());
+            while (cached.hasRemaining()) {
+                int length = Math.min(buffer.length, cached.remaining());
+                cached.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+            return;
+        }
+        if (filePath == null || !Files.isRegularFile(filePath)) {
+            metrics.notFound();
+            out.writeByte(1); // not found
+            return;
+        }
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = file.size();
+            out.writeByte(0); // ok
+            out.writeLong(size);
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            long position = 0;
+            while (position < size) {
+                wrapped.clear().limit((int) Math.min(buffer.length, size - position));
+                int read = file.read(wrapped, position);
+                if (read == -1) {
+                    // The reply already promised size bytes; the session cannot continue.
+                    throw new IOException("'" + name + "' shrank while it was being sent");
+                }
+                out.write(buffer, 0, read);
+                position += read;
+            }
+            metrics.sent(size);
+        }
+    }
+
+    /** Resolves a '/'-separated relative name inside outDir, or returns null if it would escape it. */
+    private static Path resolveRelative(Path outDir, String name) {
+        Path resolved;
+        try {
+            resolved = outDir.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!resolved.startsWith(outDir) || resolved.equals(outDir)) {
+            return null;
+        }
+        return resolved;
+    }
+
+    private static Path resolve(Path outDir, byte[] nameBytes) throws IOException {
+        String rawName = new String(nameBytes, "UTF-8");
+        return outDir.resolve(Paths.get(rawName).getFileName().toString());
+    }
+
+    private static void receive(SocketChannel channel, DataInputStream in, FileChannel file, long position,
+            long count) throws IOException {
+        if (zeroCopy) {
+            ChannelTransfer.receiveFile(channel, file, position, count);
+        } else {
+            ChannelTransfer.copyFromStream(in, file, position, count);
+        }
+        metrics.received(count);
+    }
+
+    private static void send(ByteBuffer data, SocketChannel channel, DataOutputStream out) throws IOException {
+        metrics.sent(data.remaining());
+        if (zeroCopy) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } else {
+            byte[] buffer = new byte[Math.min(data.remaining(), SESSION_BUFFER_SIZE)];
+            while (data.hasRemaining()) {
+                int length = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+            out.flush();
+        }
+    }
+
+    private static void send(FileChannel file, long position, long count, SocketChannel channel,
+            DataOutputStream out) throws IOException {
+        if (zeroCopy) {
+            ChannelTransfer.sendFile(file, position, count, channel);
+        } else {
+            ChannelTransfer.copyToStream(file, position, count, out);
+        }
+        metrics.sent(count);
     }
 }
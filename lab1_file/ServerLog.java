@@ -0,0 +1,130 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The server's status lines ("[+] ..." and "[!] ..."). In {@code async} mode request threads only
+ * queue the format and arguments; a background thread formats and writes them, so many transfers
+ * never contend for stdout. When the queue is full lines are dropped and counted rather than
+ * slowing transfers down. {@code sync} prints directly and {@code off} discards everything.
+ */
+final class ServerLog {
+    enum Mode { ASYNC, SYNC, OFF }
+
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+    private static final int DRAIN_BATCH = 256;
+
+    private record Line(String prefix, String format, Object[] args) {
+    }
+
+    private final Mode mode;
+    private final BlockingQueue<Line> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    ServerLog(Mode mode) {
+        this.mode = mode;
+        if (mode == Mode.ASYNC) {
+            queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            writer = new Thread(this::drain, "server-log");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            queue = null;
+            writer = null;
+        }
+    }
+
+    static Mode parseMode(String value) {
+        try {
+            return Mode.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("--log must be async, sync or off, not " + value);
+        }
+    }
+
+    void info(String format, Object... args) {
+        log("[+] ", format, args);
+    }
+
+    void warn(String format, Object... args) {
+        log("[!] ", format, args);
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /** Writes out everything still queued; later lines are printed synchronously. */
+    void close() {
+        if (writer == null) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void log(String prefix, String format, Object[] args) {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        if (mode == Mode.SYNC || closed) {
+            System.out.println(prefix + String.format(format, args));
+        } else if (!queue.offer(new Line(prefix, format, args))) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        List<Line> batch = new ArrayList<>(DRAIN_BATCH);
+        try {
+            while (true) {
+                Line first;
+                try {
+                    first = queue.take();
+                } catch (InterruptedException e) {
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, DRAIN_BATCH - 1);
+                write(out, batch);
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+            queue.drainTo(batch);
+            write(out, batch);
+            out.flush();
+        } catch (IOException e) {
+            // stdout is gone; nothing sensible left to do with the lines
+        }
+    }
+
+    private static void write(Writer out, List<Line> batch) throws IOException {
+        for (Line line : batch) {
+            out.write(line.prefix());
+            out.write(String.format(line.format(), line.args()));
+            out.write(System.lineSeparator());
+        }
+        batch.clear();
+    }
+}
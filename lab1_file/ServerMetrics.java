@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Counters and latency histograms for the server. Hot-path updates are LongAdder increments, so
+ * concurrent transfers do not fight over one cache line; readers sum the stripes when the
+ * snapshot is taken. Every connection is one request, timed from accept to close and filed under
+ * its operation byte. Bytes are file payload bytes, counted for the connection's client address.
+ */
+final class ServerMetrics {
+    private static final String OPS = "UDHSRAGPZY";
+    private static final int MAX_CLIENTS = 1024;
+    private static final String OTHER_CLIENTS = "other";
+
+    /**
+     * HDR-style histogram of microsecond values: 16 linear sub-buckets per power of two, so every
+     * recorded value is reported within 1/16 (6.25%) of its real value at any magnitude.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = 2 * SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        double mean() {
+            long n = total.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        /** Upper bound of the bucket holding the q-th quantile. */
+        long percentile(double q) {
+            long[] snapshot = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max());
+                }
+            }
+            return max();
+        }
+
+        private static int index(long value) {
+            if (value < 2 * SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int sub = (int) (value >>> shift); // in [SUB_COUNT, 2 * SUB_COUNT)
+            return 2 * SUB_COUNT + (shift - 1) * SUB_COUNT + (sub - SUB_COUNT);
+        }
+
+        private static long highestValue(int index) {
+            if (index < 2 * SUB_COUNT) {
+                return index;
+            }
+            int shift = (index - 2 * SUB_COUNT) / SUB_COUNT + 1;
+            long sub = (index - 2 * SUB_COUNT) % SUB_COUNT + SUB_COUNT;
+            return ((sub + 1) << shift) - 1;
+        }
+    }
+
+    /** Per-client totals. */
+    static final class ClientStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final long firstSeen = System.nanoTime();
+        private volatile long lastSeen = firstSeen;
+    }
+
+    /** State of the request running on the current thread. */
+    private static final class Current {
+        final long start = System.nanoTime();
+        final ClientStats client;
+        byte op = '?';
+
+        Current(ClientStats client) {
+            this.client = client;
+        }
+    }
+
+    private final long startedAt = System.nanoTime();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LatencyHistogram[] latencyByOp = new LatencyHistogram[128];
+    private final LatencyHistogram otherLatency = new LatencyHistogram();
+    private final Map<String, ClientStats> clients = new ConcurrentHashMap<>();
+    private final ThreadLocal<Current> current = new ThreadLocal<>();
+
+    ServerMetrics() {
+        for (char op : OPS.toCharArray()) {
+            latencyByOp[op] = new LatencyHistogram();
+        }
+    }
+
+    /** Starts timing a connection served on the calling thread. */
+    void connectionOpened(InetAddress address) {
+        accepted.increment();
+        active.increment();
+        String key = address == null ? OTHER_CLIENTS : address.getHostAddress();
+        ClientStats client = clients.get(key);
+        if (client == null) {
+            // Beyond the limit new addresses share one entry, so scans cannot grow the map forever.
+            client = clients.size() < MAX_CLIENTS
+                    ? clients.computeIfAbsent(key, k -> new ClientStats())
+                    : clients.computeIfAbsent(OTHER_CLIENTS, k -> new ClientStats());
+        }
+        client.requests.increment();
+        current.set(new Current(client));
+    }
+
+    void connectionClosed(boolean failed) {
+        active.decrement();
+        if (failed) {
+            errors.increment();
+        }
+        Current request = current.get();
+        if (request == null) {
+            return;
+        }
+        current.remove();
+        long now = System.nanoTime();
+        request.client.lastSeen = now;
+        histogram(request.op).record((now - request.start) / 1000);
+    }
+
+    void operation(byte op) {
+        Current request = current.get();
+        if (request != null) {
+            request.op = op;
+        }
+    }
+
+    void received(long bytes) {
+        bytesIn.add(bytes);
+        Current request = current.get();
+        if (request != null) {
+            request.client.bytesIn.add(bytes);
+        }
+    }
+
+    void sent(long bytes) {
+        bytesOut.add(bytes);
+        Current request = current.get();
+        if (request != null) {
+            request.client.bytesOut.add(bytes);
+        }
+    }
+
+    void notFound() {
+        notFound.increment();
+    }
+
+    /** Serves the JSON snapshot at http://127.0.0.1:port/metrics. */
+    HttpServer startHttp(int port, ServerLog log) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> respond(exchange, log));
+        http.start();
+        return http;
+    }
+
+    private void respond(HttpExchange exchange, ServerLog log) throws IOException {
+        byte[] body = toJson(log).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    String toJson(ServerLog log) {
+        double uptime = (System.nanoTime() - startedAt) / 1e9;
+        StringBuilder json = new StringBuilder(1024);
+        json.append(String.format(Locale.ROOT, "{\n  \"uptime_seconds\": %.3f,\n", uptime));
+        json.append("  \"connections\": {\"active\": ").append(active.sum())
+                .append(", \"accepted\": ").append(accepted.sum()).append("},\n");
+        json.append("  \"bytes\": {\"in\": ").append(bytesIn.sum())
+                .append(", \"out\": ").append(bytesOut.sum()).append("},\n");
+        json.append("  \"errors\": ").append(errors.sum()).append(",\n");
+        json.append("  \"not_found\": ").append(notFound.sum()).append(",\n");
+        json.append("  \"log_dropped\": ").append(log.dropped()).append(",\n");
+
+        json.append("  \"requests\": {");
+        String separator = "";
+        for (char op : (OPS + "?").toCharArray()) {
+            LatencyHistogram histogram = histogram((byte) op);
+            if (histogram.count() == 0) {
+                continue;
+            }
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "\n    \"%c\": {\"count\": %d, \"mean_us\": %.1f, \"p50_us\": %d, \"p99_us\": %d,"
+                            + " \"p999_us\": %d, \"max_us\": %d}",
+                    op, histogram.count(), histogram.mean(), histogram.percentile(0.50),
+                    histogram.percentile(0.99), histogram.percentile(0.999), histogram.max()));
+            separator = ",";
+        }
+        json.append(separator.isEmpty() ? "},\n" : "\n  },\n");
+
+        json.append("  \"clients\": [");
+        separator = "";
+        for (Map.Entry<String, ClientStats> entry : clients.entrySet()) {
+            ClientStats client = entry.getValue();
+            double active = Math.max(1e-3, (client.lastSeen - client.firstSeen) / 1e9);
+            long in = client.bytesIn.sum();
+            long out = client.bytesOut.sum();
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "\n    {\"address\": \"%s\", \"requests\": %d, \"bytes_in\": %d, \"bytes_out\": %d,"
+                            + " \"bytes_per_second\": %.0f}",
+                    entry.getKey(), client.requests.sum(), in, out, (in + out) / active));
+            separator = ",";
+        }
+        json.append(separator.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private LatencyHistogram histogram(byte op) {
+        LatencyHistogram histogram = op >= 0 ? latencyByOp[op] : null;
+        return histogram != null ? histogram : otherLatency;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks striped uploads in progress. Every stripe of a transfer writes its byte range in place
+ * into one shared temp file; once all bytes of the file have arrived the temp file is moved to
+ * its final name, so readers never see a partially written file.
+ */
+final class StripedUploads {
+
+    static final class Upload {
+        private final String key;
+        private final Path temp;
+        private final Path destination;
+        private final long size;
+        private final FileChannel file;
+        private final TreeMap<Long, Long> ranges = new TreeMap<>(); // start -> end, non-overlapping
+        private long covered;
+        private int active;
+        private boolean published;
+        private boolean failed;
+
+        private Upload(String key, Path temp, Path destination, long size, FileChannel file) {
+            this.key = key;
+            this.temp = temp;
+            this.destination = destination;
+            this.size = size;
+            this.file = file;
+        }
+
+        FileChannel file() {
+            return file;
+        }
+
+        long size() {
+            return size;
+        }
+
+        private void addRange(long start, long end) {
+            Map.Entry<Long, Long> before = ranges.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+                covered -= before.getValue() - before.getKey();
+                ranges.remove(before.getKey());
+            }
+            Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+            while (next != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                covered -= next.getValue() - next.getKey();
+                ranges.remove(next.getKey());
+                next = ranges.ceilingEntry(start);
+            }
+            ranges.put(start, end);
+            covered += end - start;
+        }
+    }
+
+    private final Map<String, Upload> uploads = new HashMap<>();
+
+    synchronized Upload begin(Path destination, long transferId, long size) throws IOException {
+        String key = destination + "#" + Long.toHexString(transferId);
+        Upload upload = uploads.get(key);
+        if (upload == null) {
+            Path temp = destination.resolveSibling(
+                    "." + destination.getFileName() + "." + Long.toHexString(transferId) + ".part");
+            FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            upload = new Upload(key, temp, destination, size, file);
+            uploads.put(key, upload);
+        } else if (upload.failed) {
+            throw new IOException("An earlier stripe of " + destination.getFileName() + " failed");
+        } else if (upload.size != size) {
+            throw new IOException("Stripe size mismatch for " + destination.getFileName()
+                    + ": " + size + " vs " + upload.size);
+        }
+        upload.active++;
+        return upload;
+    }
+
+    /**
+     * Records a fully written range and publishes the file once every byte is present. Ends the
+     * stripe whatever happens, so a caller must not also {@link #abort} it.
+     *
+     * @return true when this range completed the file
+     * @throws IOException when another stripe of the transfer has failed or the file cannot be published
+     */
+    synchronized boolean complete(Upload upload, long offset, long length) throws IOException {
+        upload.active--;
+        if (upload.failed) {
+            release(upload);
+            throw new IOException("Another stripe of " + upload.destination.getFileName() + " failed");
+        }
+        upload.addRange(offset, offset + length);
+        if (upload.published || upload.covered < upload.size) {
+            return false;
+        }
+        upload.published = true;
+        uploads.remove(upload.key);
+        upload.file.close();
+        try {
+            Files.move(upload.temp, upload.destination, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(upload.temp);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Drops a failed stripe and with it the whole transfer; the temp file goes away once no stripe
+     * of the transfer is active.
+     */
+    synchronized void abort(Upload upload) throws IOException {
+        upload.active--;
+        upload.failed = true;
+        release(upload);
+    }
+
+    private void release(Upload upload) throws IOException {
+        if (upload.active == 0 && !upload.published) {
+            uploads.remove(upload.key);
+            upload.file.close();
+            Files.deleteIfExists(upload.temp);
+        }
+    }
+}
@@ -2,24 +2,41 @@
 package mpi;
 
 import mpi.MPI;
+import mpi.Request;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 
 public class FileTransferMPI {
 
-    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_DEPTH = 4;
+
+    private static int chunkSize = DEFAULT_CHUNK_SIZE;
+    private static int depth = DEFAULT_DEPTH;
+    private static boolean pipeline;
+    private static String mode = "copy";
+    private static int root;
+    private static String tree = "chain";
 
     public static void main(String[] args) throws Exception {
         // MPJ Express returns the application args after stripping its own flags.
-        String[] appArgs = MPI.Init(args);
+        String[] appArgs = parseOptions(MPI.Init(args));
 
         int rank = MPI.COMM_WORLD.Rank();
         int world = MPI.COMM_WORLD.Size();
@@ -32,19 +49,43 @@ public class FileTransferMPI {
             return;
         }
 
-        if (rank > 1) {
+        if (appArgs.length < 1) {
+            if (rank == 0) {
+                System.err.println("Usage: mpirun -np 2 java FileTransferMPI [--pipeline] [--chunk-size=BYTES]"
+                        + " [--depth=N] <input_file> [output_path_on_receiver]");
+                System.err.println("       mpirun -np P java FileTransferMPI --mode=broadcast [--root=R]"
+                        + " [--tree=chain|binomial] [--chunk-size=BYTES] [--depth=N] <input_file> [output_path]");
+                System.err.println("       mpirun -np P java FileTransferMPI --mode=scatter [--root=R]"
+                        + " [--chunk-size=STRIPE_BYTES] [--depth=N] <input_file> [stripe_path]");
+                System.err.println("       mpirun -np P java FileTransferMPI --mode=gather [--root=R] [--depth=N]"
+                        + " <stripe_path> [output_path]");
+                System.err.println("An output or stripe path may contain {rank}, replaced by the rank using it.");
+            }
             MPI.Finalize();
             return;
         }
 
-        if (appArgs.length < 1) {
-            if (rank == 0) {
-                System.err.println("Usage: mpirun -np 2 java FileTransferMPI <input_file> [output_path_on_receiver]");
+        if (!mode.equals("copy")) {
+            if (root < 0 || root >= world) {
+                if (rank == 0) {
+                    System.err.printf("--root=%d is not a rank of this %d-process job%n", root, world);
+                }
+            } else if (mode.equals("broadcast")) {
+                runBroadcast(appArgs, rank, world);
+            } else if (mode.equals("scatter")) {
+                runScatter(appArgs, rank, world);
+            } else {
+                runGather(appArgs, rank, world);
             }
             MPI.Finalize();
             return;
         }
 
+        if (rank > 1) {
+            MPI.Finalize();
+            return;
+        }
+
         if (rank == 0) {
             runSender(appArgs);
         } else {
@@ -54,6 +95,38 @@ public class FileTransferMPI {
         MPI.Finalize();
     }
 
+    /** Strips the transfer options; both ranks see the same command line, so they agree on them. */
+    private static String[] parseOptions(String[] args) {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--pipeline")) {
+                pipeline = true;
+            } else if (arg.startsWith("--chunk-size=")) {
+                chunkSize = Integer.parseInt(arg.substring("--chunk-size=".length()));
+            } else if (arg.startsWith("--depth=")) {
+                depth = Math.max(1, Integer.parseInt(arg.substring("--depth=".length())));
+            } else if (arg.startsWith("--mode=")) {
+                mode = arg.substring("--mode=".length());
+            } else if (arg.startsWith("--root=")) {
+                root = Integer.parseInt(arg.substring("--root=".length()));
+            } else if (arg.startsWith("--tree=")) {
+                tree = arg.substring("--tree=".length());
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("--chunk-size must be positive");
+        }
+        if (!List.of("copy", "broadcast", "scatter", "gather").contains(mode)) {
+            throw new IllegalArgumentException("Unknown --mode " + mode);
+        }
+        if (!tree.equals("chain") && !tree.equals("binomial")) {
+            throw new IllegalArgumentException("Unknown --tree " + tree);
+        }
+        return positional.toArray(new String[0]);
+    }
+
     private static void runSender(String[] args) throws IOException {
         String inputPathStr = args[0];
         Path inputPath = Paths.get(inputPathStr).toAbsolutePath();
@@ -82,19 +155,54 @@ public class FileTransferMPI {
         MPI.COMM_WORLD.Send(sizeArr, 0, 1, MPI.LONG, 1, 0);
         MPI.COMM_WORLD.Send(nameBytes, 0, nameBytes.length, MPI.BYTE, 1, 0);
 
-        // send file content in chunks
-        byte[] buffer = new byte[CHUNK_SIZE];
+        double start = MPI.Wtime();
+        long sent;
+        if (pipeline) {
+            sent = sendPipelined(inputPath, fileSize);
+        } else {
+            // send file content in chunks
+            byte[] buffer = new byte[chunkSize];
+            sent = 0;
+            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(inputPath.toFile()))) {
+                int read;
+                while (sent < fileSize && (read = in.read(buffer)) != -1) {
+                    int toSend = (int) Math.min(read, fileSize - sent);
+                    MPI.COMM_WORLD.Send(buffer, 0, toSend, MPI.BYTE, 1, 0);
+                    sent += toSend;
+                }
+            }
+        }
+
+        System.out.printf("[sender] Done. Total sent: %d bytes in %.2f s%n", sent, MPI.Wtime() - start);
+    }
+
+    /**
+     * Sends the file with up to depth chunks in flight. Each buffer of the ring is refilled only
+     * after its previous Isend completed, so reading the next chunk overlaps sending the earlier ones.
+     */
+    private static long sendPipelined(Path inputPath, long fileSize) throws IOException {
+        byte[][] buffers = new byte[depth][chunkSize];
+        Request[] inFlight = new Request[depth];
         long sent = 0;
-        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(inputPath.toFile()))) {
-            int read;
-            while (sent < fileSize && (read = in.read(buffer)) != -1) {
-                int toSend = (int) Math.min(read, fileSize - sent);
-                MPI.COMM_WORLD.Send(buffer, 0, toSend, MPI.BYTE, 1, 0);
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            for (int chunk = 0; sent < fileSize; chunk++) {
+                int slot = chunk % depth;
+                if (inFlight[slot] != null) {
+                    inFlight[slot].Wait();
+                }
+                int toSend = (int) Math.min(chunkSize, fileSize - sent);
+                ByteBuffer buffer = ByteBuffer.wrap(buffers[slot], 0, toSend);
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer, sent + buffer.position()) == -1) {
+                        throw new IOException("File shrank while sending, at " + (sent + buffer.position()) + " bytes");
+                    }
+                }
+                inFlight[slot] = MPI.COMM_WORLD.Isend(buffers[slot], 0, toSend, MPI.BYTE, 1, 0);
                 sent += toSend;
             }
         }
-
-        System.out.printf("[sender] Done. Total sent: %d bytes%n", sent);
+        waitAll(inFlight);
+        return sent;
     }
 
     private static void runReceiver(String[] args) throws IOException {
@@ -123,17 +231,477 @@ public class FileTransferMPI {
         long fileSize = sizeArr[0];
         System.out.printf("[receiver] Receiving '%s' (%d bytes) -> %s%n", fileName, fileSize, outputPath);
 
-        byte[] buffer = new byte[CHUNK_SIZE];
+        double start = MPI.Wtime();
+        long received;
+        if (pipeline) {
+            received = receivePipelined(outputPath, fileSize);
+        } else {
+            byte[] buffer = new byte[chunkSize];
+            received = 0;
+            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath.toFile()))) {
+                while (received < fileSize) {
+                    int toRecv = (int) Math.min(chunkSize, fileSize - received);
+                    MPI.COMM_WORLD.Recv(buffer, 0, toRecv, MPI.BYTE, 0, 0);
+                    out.write(buffer, 0, toRecv);
+                    received += toRecv;
+                }
+            }
+        }
+
+        System.out.printf("[receiver] Done. Stored %s (%d bytes) in %.2f s%n", outputPath, received,
+                MPI.Wtime() - start);
+    }
+
+    /**
+     * Keeps depth receives posted. Once the oldest completes its chunk is written to disk while the
+     * later receives proceed, and its buffer is reposted for the chunk depth places further on.
+     * Messages between two ranks with one tag arrive in order, so chunk i always lands in slot i % depth.
+     */
+    private static long receivePipelined(Path outputPath, long fileSize) throws IOException {
+        byte[][] buffers = new byte[depth][chunkSize];
+        Request[] inFlight = new Request[depth];
+        long chunks = (fileSize + chunkSize - 1) / chunkSize;
+        for (int chunk = 0; chunk < Math.min(depth, chunks); chunk++) {
+            inFlight[chunk] = MPI.COMM_WORLD.Irecv(buffers[chunk], 0, chunkLength(chunk, fileSize), MPI.BYTE, 0, 0);
+        }
         long received = 0;
-        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath.toFile()))) {
-            while (received < fileSize) {
-                int toRecv = (int) Math.min(CHUNK_SIZE, fileSize - received);
-                MPI.COMM_WORLD.Recv(buffer, 0, toRecv, MPI.BYTE, 0, 0);
-                out.write(buffer, 0, toRecv);
-                received += toRecv;
+        try (FileChannel out = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                int slot = (int) (chunk % depth);
+                inFlight[slot].Wait();
+                int length = chunkLength(chunk, fileSize);
+                ByteBuffer buffer = ByteBuffer.wrap(buffers[slot], 0, length);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                received += length;
+                long next = chunk + depth;
+                inFlight[slot] = next < chunks
+                        ? MPI.COMM_WORLD.Irecv(buffers[slot], 0, chunkLength(next, fileSize), MPI.BYTE, 0, 0)
+                        : null;
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Sends the root's file to every other rank, which all store a copy. The file goes down a tree
+     * in chunks: a rank forwards each chunk to its children as soon as it has it and writes it to
+     * disk while those sends are in flight, so all ranks receive and write at the same time. A
+     * chain moves the whole file in about size/bandwidth plus one chunk time per hop; a binomial
+     * tree needs only log2(P) hops but the root sends every chunk log2(P) times, which suits
+     * small files and many ranks.
+     */
+    private static void runBroadcast(String[] args, int rank, int world) throws IOException {
+        Path inputPath = Paths.get(args[0]).toAbsolutePath();
+        int[] nameLen = new int[1];
+        long[] sizeArr = new long[1];
+        byte[] nameBytes = new byte[0];
+        if (rank == root) {
+            if (!Files.isRegularFile(inputPath)) {
+                System.err.println("[root] File not found: " + inputPath);
+                MPI.COMM_WORLD.Abort(2);
+                return;
+            }
+            nameBytes = inputPath.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+            nameLen[0] = nameBytes.length;
+            sizeArr[0] = Files.size(inputPath);
+        }
+        MPI.COMM_WORLD.Bcast(nameLen, 0, 1, MPI.INT, root);
+        MPI.COMM_WORLD.Bcast(sizeArr, 0, 1, MPI.LONG, root);
+        if (rank != root) {
+            nameBytes = new byte[nameLen[0]];
+        }
+        MPI.COMM_WORLD.Bcast(nameBytes, 0, nameLen[0], MPI.BYTE, root);
+        String fileName = new String(nameBytes, StandardCharsets.UTF_8);
+        long fileSize = sizeArr[0];
+
+        // Ranks relative to the root, so any rank can be the root of the same tree shape.
+        int relative = (rank - root + world) % world;
+        int parent = treeParent(relative);
+        int[] children = treeChildren(relative, world);
+        for (int i = 0; i < children.length; i++) {
+            children[i] = (children[i] + root) % world;
+        }
+
+        double start = MPI.Wtime();
+        if (rank == root) {
+            System.out.printf("[root] Broadcasting '%s' (%d bytes) to %d ranks over a %s%n", fileName, fileSize,
+                    world - 1, tree);
+            forwardPipelined(inputPath, fileSize, -1, children);
+        } else {
+            Path outputPath = outputPath(args.length >= 2 ? args[1] : fileName, rank);
+            forwardPipelined(outputPath, fileSize, (parent + root) % world, children);
+            System.out.printf("[rank %d] Stored %s (%d bytes) in %.2f s%n", rank, outputPath, fileSize,
+                    MPI.Wtime() - start);
+        }
+        MPI.COMM_WORLD.Barrier();
+        if (rank == root) {
+            double seconds = MPI.Wtime() - start;
+            System.out.printf("[root] Done. Every rank has %d bytes after %.2f s (%.1f MB/s)%n", fileSize, seconds,
+                    fileSize / 1e6 / Math.max(seconds, 1e-9));
+        }
+    }
+
+    private static int treeParent(int relative) {
+        if (relative == 0) {
+            return -1;
+        }
+        return tree.equals("chain") ? relative - 1 : relative & (relative - 1);
+    }
+
+    /** Children in a binomial tree are listed biggest subtree first, so the deepest branch starts earliest. */
+    private static int[] treeChildren(int relative, int world) {
+        List<Integer> children = new ArrayList<>();
+        if (tree.equals("chain")) {
+            if (relative + 1 < world) {
+                children.add(relative + 1);
+            }
+        } else {
+            int limit = relative == 0 ? Integer.highestOneBit(Math.max(1, world - 1)) << 1 : relative & -relative;
+            for (int mask = limit >> 1; mask > 0; mask >>= 1) {
+                if (relative + mask < world) {
+                    children.add(relative + mask);
+                }
+            }
+        }
+        return children.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Moves a file through one node of the broadcast tree. The root (parent -1) reads chunks from
+     * path; every other rank receives them from its parent and writes them to path. Either way each
+     * chunk is passed on to the children with Isend, using a ring of depth buffers; a buffer is
+     * reused only once the sends from it have completed.
+     */
+    private static void forwardPipelined(Path path, long fileSize, int parent, int[] children) throws IOException {
+        boolean isRoot = parent < 0;
+        byte[][] buffers = new byte[depth][chunkSize];
+        Request[] receives = new Request[depth];
+        Request[][] sends = new Request[depth][];
+        long chunks = (fileSize + chunkSize - 1) / chunkSize;
+        if (!isRoot) {
+            for (int chunk = 0; chunk < Math.min(depth, chunks); chunk++) {
+                receives[chunk] = MPI.COMM_WORLD.Irecv(buffers[chunk], 0, chunkLength(chunk, fileSize), MPI.BYTE,
+                        parent, 0);
+            }
+        }
+        try (FileChannel file = isRoot
+                ? FileChannel.open(path, StandardOpenOption.READ)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                int slot = (int) (chunk % depth);
+                int length = chunkLength(chunk, fileSize);
+                ByteBuffer buffer = ByteBuffer.wrap(buffers[slot], 0, length);
+                if (isRoot) {
+                    waitAll(sends[slot]);
+                    while (buffer.hasRemaining()) {
+                        long position = chunk * chunkSize + buffer.position();
+                        if (file.read(buffer, position) == -1) {
+                            throw new IOException("File shrank while sending, at " + position + " bytes");
+                        }
+                    }
+                } else {
+                    receives[slot].Wait();
+                }
+
+                sends[slot] = new Request[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    sends[slot][i] = MPI.COMM_WORLD.Isend(buffers[slot], 0, length, MPI.BYTE, children[i], 0);
+                }
+
+                if (!isRoot) {
+                    buffer.rewind();
+                    while (buffer.hasRemaining()) {
+                        file.write(buffer);
+                    }
+                    long next = chunk + depth;
+                    if (next < chunks) {
+                        waitAll(sends[slot]);
+                        receives[slot] = MPI.COMM_WORLD.Irecv(buffers[slot], 0, chunkLength(next, fileSize),
+                                MPI.BYTE, parent, 0);
+                    }
+                }
+            }
+        }
+        for (Request[] slotSends : sends) {
+            waitAll(slotSends);
+        }
+    }
+
+    /**
+     * Splits the root's file into stripes of chunk-size bytes dealt out round-robin, stripe k to
+     * rank k % P. Every rank, the root included, stores its stripes back to back in one stripe file
+     * next to a manifest describing the split, so the file spreads over the disks of the whole job.
+     */
+    private static void runScatter(String[] args, int rank, int world) throws IOException {
+        Path inputPath = Paths.get(args[0]).toAbsolutePath();
+        int[] nameLen = new int[1];
+        long[] sizeArr = new long[1];
+        byte[] nameBytes = new byte[0];
+        if (rank == root) {
+            if (!Files.isRegularFile(inputPath)) {
+                System.err.println("[root] File not found: " + inputPath);
+                MPI.COMM_WORLD.Abort(2);
+                return;
+            }
+            nameBytes = inputPath.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+            nameLen[0] = nameBytes.length;
+            sizeArr[0] = Files.size(inputPath);
+        }
+        MPI.COMM_WORLD.Bcast(nameLen, 0, 1, MPI.INT, root);
+        MPI.COMM_WORLD.Bcast(sizeArr, 0, 1, MPI.LONG, root);
+        if (rank != root) {
+            nameBytes = new byte[nameLen[0]];
+        }
+        MPI.COMM_WORLD.Bcast(nameBytes, 0, nameLen[0], MPI.BYTE, root);
+        String fileName = new String(nameBytes, StandardCharsets.UTF_8);
+        long fileSize = sizeArr[0];
+        long stripes = (fileSize + chunkSize - 1) / chunkSize;
+
+        Path stripePath = outputPath(args.length >= 2 ? args[1] : fileName + ".stripe{rank}", rank);
+        double start = MPI.Wtime();
+        long stored = 0;
+        try (FileChannel out = FileChannel.open(stripePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (rank == root) {
+                System.out.printf("[root] Scattering '%s' (%d bytes) as %d stripes of %d bytes over %d ranks%n",
+                        fileName, fileSize, stripes, chunkSize, world);
+                byte[][] buffers = new byte[depth][chunkSize];
+                Request[] sends = new Request[depth];
+                try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+                    for (long stripe = 0; stripe < stripes; stripe++) {
+                        int slot = (int) (stripe % depth);
+                        if (sends[slot] != null) {
+                            sends[slot].Wait();
+                            sends[slot] = null;
+                        }
+                        int length = chunkLength(stripe, fileSize);
+                        ByteBuffer buffer = ByteBuffer.wrap(buffers[slot], 0, length);
+                        while (buffer.hasRemaining()) {
+                            long position = stripe * chunkSize + buffer.position();
+                            if (in.read(buffer, position) == -1) {
+                                throw new IOException("File shrank while sending, at " + position + " bytes");
+                            }
+                        }
+                        int owner = (int) (stripe % world);
+                        if (owner == root) {
+                            buffer.rewind();
+                            while (buffer.hasRemaining()) {
+                                out.write(buffer);
+                            }
+                            stored += length;
+                        } else {
+                            sends[slot] = MPI.COMM_WORLD.Isend(buffers[slot], 0, length, MPI.BYTE, owner, 0);
+                        }
+                    }
+                }
+                waitAll(sends);
+            } else {
+                stored = receiveStripes(out, rank, world, fileSize, stripes);
+            }
+        }
+        writeManifest(manifestPath(stripePath), fileName, fileSize, world, rank);
+        System.out.printf("[rank %d] Stored %d bytes of stripes in %s in %.2f s%n", rank, stored, stripePath,
+                MPI.Wtime() - start);
+
+        MPI.COMM_WORLD.Barrier();
+        if (rank == root) {
+            double seconds = MPI.Wtime() - start;
+            System.out.printf("[root] Done. Scattered %d bytes in %.2f s (%.1f MB/s)%n", fileSize, seconds,
+                    fileSize / 1e6 / Math.max(seconds, 1e-9));
+        }
+    }
+
+    /** Receives this rank's stripes from the root in order, with depth receives posted, appending each to out. */
+    private static long receiveStripes(FileChannel out, int rank, int world, long fileSize, long stripes)
+            throws IOException {
+        long count = stripes > rank ? (stripes - rank + world - 1) / world : 0;
+        byte[][] buffers = new byte[depth][chunkSize];
+        Request[] receives = new Request[depth];
+        for (int local = 0; local < Math.min(depth, count); local++) {
+            receives[local] = MPI.COMM_WORLD.Irecv(buffers[local], 0,
+                    chunkLength(rank + (long) local * world, fileSize), MPI.BYTE, root, 0);
+        }
+        long stored = 0;
+        for (long local = 0; local < count; local++) {
+            int slot = (int) (local % depth);
+            receives[slot].Wait();
+            int length = chunkLength(rank + local * world, fileSize);
+            ByteBuffer buffer = ByteBuffer.wrap(buffers[slot], 0, length);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            stored += length;
+            long next = local + depth;
+            receives[slot] = next < count
+                    ? MPI.COMM_WORLD.Irecv(buffers[slot], 0, chunkLength(rank + next * world, fileSize), MPI.BYTE,
+                            root, 0)
+                    : null;
+        }
+        return stored;
+    }
+
+    /**
+     * Rebuilds a scattered file on the root. Every rank reads its own stripe file and streams it to
+     * the root, all at once; the root keeps depth receives posted in file order and writes each
+     * stripe at its offset with a positional write.
+     */
+    private static void runGather(String[] args, int rank, int world) throws IOException {
+        Path stripePath = Paths.get(args[0].replace("{rank}", Integer.toString(rank))).toAbsolutePath();
+        Properties manifest = readManifest(manifestPath(stripePath));
+        long fileSize = Long.parseLong(manifest.getProperty("size"));
+        chunkSize = Integer.parseInt(manifest.getProperty("stripeSize"));
+        if (Integer.parseInt(manifest.getProperty("ranks")) != world
+                || Integer.parseInt(manifest.getProperty("rank")) != rank) {
+            System.err.printf("[rank %d] %s was written by rank %s of %s, not rank %d of %d%n", rank, stripePath,
+                    manifest.getProperty("rank"), manifest.getProperty("ranks"), rank, world);
+            MPI.COMM_WORLD.Abort(2);
+            return;
+        }
+        // Every rank must be holding stripes of the same split.
+        long[] layout = {fileSize, chunkSize};
+        long[] rootLayout = layout.clone();
+        MPI.COMM_WORLD.Bcast(rootLayout, 0, 2, MPI.LONG, root);
+        if (rootLayout[0] != layout[0] || rootLayout[1] != layout[1]) {
+            System.err.printf("[rank %d] %s does not belong to the same file as the root's stripes%n", rank,
+                    stripePath);
+            MPI.COMM_WORLD.Abort(2);
+            return;
+        }
+        long stripes = (fileSize + chunkSize - 1) / chunkSize;
+
+        double start = MPI.Wtime();
+        try (FileChannel in = FileChannel.open(stripePath, StandardOpenOption.READ)) {
+            if (rank == root) {
+                String fileName = manifest.getProperty("name");
+                Path outputPath = outputPath(args.length >= 2 ? args[1] : fileName, rank);
+                System.out.printf("[root] Gathering '%s' (%d bytes) from %d ranks -> %s%n", fileName, fileSize,
+                        world, outputPath);
+                try (FileChannel out = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    collectStripes(in, out, rank, world, fileSize, stripes);
+                }
+            } else {
+                sendStripes(in, rank, world, fileSize, stripes);
+            }
+        }
+
+        MPI.COMM_WORLD.Barrier();
+        if (rank == root) {
+            double seconds = MPI.Wtime() - start;
+            System.out.printf("[root] Done. Gathered %d bytes in %.2f s (%.1f MB/s)%n", fileSize, seconds,
+                    fileSize / 1e6 / Math.max(seconds, 1e-9));
+        }
+    }
+
+    private static void collectStripes(FileChannel local, FileChannel out, int rank, int world, long fileSize,
+            long stripes) throws IOException {
+        byte[][] buffers = new byte[depth][chunkSize];
+        Request[] receives = new Request[depth];
+        // Stripes of one rank arrive in order, so receives posted in file order match up.
+        for (long stripe = 0; stripe < Math.min(depth, stripes); stripe++) {
+            receives[(int) stripe] = postStripeReceive(buffers[(int) stripe], stripe, rank, world, fileSize);
+        }
+        for (long stripe = 0; stripe < stripes; stripe++) {
+            int slot = (int) (stripe % depth);
+            int length = chunkLength(stripe, fileSize);
+            ByteBuffer buffer = ByteBuffer.wrap(buffers[slot], 0, length);
+            if (receives[slot] != null) {
+                receives[slot].Wait();
+            } else {
+                // One of the root's own stripes.
+                long localOffset = stripe / world * chunkSize;
+                while (buffer.hasRemaining()) {
+                    if (local.read(buffer, localOffset + buffer.position()) == -1) {
+                        throw new IOException("Stripe file ended early at stripe " + stripe);
+                    }
+                }
+                buffer.rewind();
+            }
+            while (buffer.hasRemaining()) {
+                out.write(buffer, stripe * chunkSize + buffer.position());
             }
+            long next = stripe + depth;
+            receives[slot] = next < stripes ? postStripeReceive(buffers[slot], next, rank, world, fileSize) : null;
         }
+    }
+
+    private static Request postStripeReceive(byte[] buffer, long stripe, int rank, int world, long fileSize) {
+        int owner = (int) (stripe % world);
+        return owner == rank ? null
+                : MPI.COMM_WORLD.Irecv(buffer, 0, chunkLength(stripe, fileSize), MPI.BYTE, owner, 0);
+    }
 
-        System.out.printf("[receiver] Done. Stored %s (%d bytes)%n", outputPath, received);
+    private static void sendStripes(FileChannel in, int rank, int world, long fileSize, long stripes)
+            throws IOException {
+        long count = stripes > rank ? (stripes - rank + world - 1) / world : 0;
+        byte[][] buffers = new byte[depth][chunkSize];
+        Request[] sends = new Request[depth];
+        for (long local = 0; local < count; local++) {
+            int slot = (int) (local % depth);
+            if (sends[slot] != null) {
+                sends[slot].Wait();
+            }
+            int length = chunkLength(rank + local * world, fileSize);
+            ByteBuffer buffer = ByteBuffer.wrap(buffers[slot], 0, length);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, local * chunkSize + buffer.position()) == -1) {
+                    throw new IOException("Stripe file ended early at local stripe " + local);
+                }
+            }
+            sends[slot] = MPI.COMM_WORLD.Isend(buffers[slot], 0, length, MPI.BYTE, root, 0);
+        }
+        waitAll(sends);
+    }
+
+    private static Path manifestPath(Path stripePath) {
+        return stripePath.resolveSibling(stripePath.getFileName() + ".manifest");
+    }
+
+    private static void writeManifest(Path path, String name, long size, int world, int rank) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("name", name);
+        manifest.setProperty("size", Long.toString(size));
+        manifest.setProperty("stripeSize", Integer.toString(chunkSize));
+        manifest.setProperty("ranks", Integer.toString(world));
+        manifest.setProperty("rank", Integer.toString(rank));
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            manifest.store(writer, "Stripe k of the file is in the stripe file of rank k % ranks");
+        }
+    }
+
+    private static Properties readManifest(Path path) throws IOException {
+        Properties manifest = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            manifest.load(reader);
+        }
+        return manifest;
+    }
+
+    private static Path outputPath(String pattern, int rank) throws IOException {
+        Path outputPath = Paths.get(pattern.replace("{rank}", Integer.toString(rank))).toAbsolutePath();
+        Path parent = outputPath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return outputPath;
+    }
+
+    private static int chunkLength(long chunk, long fileSize) {
+        return (int) Math.min(chunkSize, fileSize - chunk * chunkSize);
+    }
+
+    private static void waitAll(Request[] requests) {
+        if (requests == null) {
+            return;
+        }
+        for (Request request : requests) {
+            if (request != null) {
+                request.Wait();
+            }
+        }
     }
 }
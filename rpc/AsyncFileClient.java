@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.registry.LocateRegistry;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reusable client for {@link FileService} that runs transfers concurrently. The registry lookup
+ * happens once and the stub is reused by every call; it is looked up again only after the server
+ * went away (in binary mode, after the connection failed). Every transfer runs on its own virtual thread and returns a CompletableFuture.
+ * Two limits keep a large job from swamping the client or the server: the number of requests in
+ * flight, and the bytes in flight (a file counts with its size, capped at the byte limit).
+ */
+public class AsyncFileClient implements AutoCloseable {
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final String host;
+    private final int port;
+    private final boolean binary;
+    private final Semaphore requests;
+    private final Semaphore bytes;
+    private final int maxBytes;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile FileService stub;
+
+    public AsyncFileClient(String host, int port, int maxInFlight, int maxInFlightBytes) {
+        this(host, port, false, maxInFlight, maxInFlightBytes);
+    }
+
+    /** With binary set, talks to a {@link BinaryRpcServer}; all transfers share its one connection. */
+    public AsyncFileClient(String host, int port, boolean binary, int maxInFlight, int maxInFlightBytes) {
+        this.host = host;
+        this.port = port;
+        this.binary = binary;
+        this.requests = new Semaphore(maxInFlight);
+        this.maxBytes = maxInFlightBytes;
+        this.bytes = new Semaphore(maxInFlightBytes);
+    }
+
+    /** Uploads a file; completes with the stored size. */
+    public CompletableFuture<Long> upload(Path file, String remoteName) {
+        return submit(sizeOf(file), service -> {
+            if (Files.size(file) <= FileService.MAX_CHUNK_SIZE) {
+                // Small files cost one round trip instead of open, write and commit.
+                byte[] data = Files.readAllBytes(file);
+                service.upload(remoteName, data);
+                return (long) data.length;
+            }
+            return streamUpload(service, file, remoteName);
+        });
+    }
+
+    /**
+     * Downloads a file; completes with its size. Files expected to fit in one chunk are fetched
+     * with a single call. Pass -1 when the size is unknown.
+     */
+    public CompletableFuture<Long> download(String remoteName, Path target, long expectedSize) {
+        return submit(expectedSize, service -> {
+            if (expectedSize >= 0 && expectedSize <= FileService.MAX_CHUNK_SIZE) {
+                byte[] data = service.download(remoteName);
+                Path parent = target.getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                Files.write(target, data);
+                return (long) data.length;
+            }
+            return streamDownload(service, remoteName, target);
+        });
+    }
+
+    public CompletableFuture<FileStat> stat(String remoteName) {
+        return submit(0, service -> service.stat(remoteName));
+    }
+
+    /** Waits for running transfers and releases the threads. */
+    @Override
+    public void close() {
+        executor.close();
+        if (stub instanceof BinaryFileClient connection) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // nothing left to flush
+            }
+        }
+    }
+
+    private interface Call<T> {
+        T run(FileService service) throws IOException, NotBoundException;
+    }
+
+    private <T> CompletableFuture<T> submit(long size, Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        int permits = (int) Math.min(Math.max(size, 0), maxBytes);
+        executor.execute(() -> {
+            try {
+                requests.acquire();
+                try {
+                    bytes.acquire(permits);
+                    try {
+                        result.complete(invoke(call));
+                    } finally {
+                        bytes.release(permits);
+                    }
+                } finally {
+                    requests.release();
+                }
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private <T> T invoke(Call<T> call) throws IOException, NotBoundException {
+        FileService service = service();
+        try {
+            return call.run(service);
+        } catch (ConnectException | NoSuchObjectException e) {
+            // The server restarted or moved; drop the cached stub and try once more.
+            drop(service);
+            return call.run(service());
+        } catch (IOException e) {
+            // A binary connection that dropped fails every call on it; reconnect and try once more.
+            if (!(service instanceof BinaryFileClient connection) || connection.isOpen()) {
+                throw e;
+            }
+            drop(service);
+            return call.run(service());
+        }
+    }
+
+    private FileService service() throws IOException, NotBoundException {
+        FileService service = stub;
+        if (service instanceof BinaryFileClient connection && !connection.isOpen()) {
+            drop(service);
+            service = null;
+        }
+        if (service == null) {
+            synchronized (this) {
+                service = stub;
+                if (service == null) {
+                    service = binary ? new BinaryFileClient(host, port)
+                            : (FileService) LocateRegistry.getRegistry(host, port).lookup("FileService");
+                    stub = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /** Forgets a stub that no longer works, closing it if it is a binary connection. */
+    private synchronized void drop(FileService service) {
+        if (stub == service) {
+            stub = null;
+        }
+        if (service instanceof BinaryFileClient connection) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // already broken
+            }
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0; // the upload itself reports the problem
+        }
+    }
+
+    static long streamUpload(FileService service, Path filePath, String remoteName) throws IOException {
+        long size = 0;
+        long uploadId = service.openUpload(remoteName);
+        try (InputStream in = Files.newInputStream(filePath)) {
+            // One chunk buffer is reused for every call, so heap use does not grow with the file.
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = in.readNBytes(chunk, 0, chunk.length)) > 0) {
+                service.writeChunk(uploadId, size, read == chunk.length ? chunk : Arrays.copyOf(chunk, read));
+                size += read;
+            }
+            return service.commit(uploadId);
+        } catch (IOException e) {
+            service.abort(uploadId);
+            throw e;
+        }
+    }
+
+    static long streamDownload(FileService service, String remoteName, Path outputPath) throws IOException {
+        long downloadId = service.openDownload(remoteName);
+        Path parent = outputPath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(outputPath)) {
+            byte[] chunk;
+            while ((chunk = service.readChunk(downloadId, CHUNK_SIZE)).length > 0) {
+                out.write(chunk);
+                size += chunk.length;
+            }
+        } finally {
+            service.closeDownload(downloadId);
+        }
+        return size;
+    }
+}
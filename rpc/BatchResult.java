@@ -0,0 +1,60 @@
+import java.io.Serializable;
+
+/**
+ * Outcome of one item of a batch call. A failed item carries an error message and does not
+ * affect the other items of the batch.
+ */
+public final class BatchResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Error of a download left out of a batch only because the batch's byte budget ran out. */
+    static final String OVER_BUDGET = "Too large for this batch, fetch it separately";
+
+    private final String name;
+    private final String error;
+    private final byte[] data;
+    private final FileStat stat;
+
+    private BatchResult(String name, String error, byte[] data, FileStat stat) {
+        this.name = name;
+        this.error = error;
+        this.data = data;
+        this.stat = stat;
+    }
+
+    public static BatchResult ok(String name, byte[] data, FileStat stat) {
+        return new BatchResult(name, null, data, stat);
+    }
+
+    public static BatchResult failed(String name, String error) {
+        return new BatchResult(name, error, null, null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOk() {
+        return error == null;
+    }
+
+    /** Whether the item failed only for lack of room in its batch, so fetching it alone may work. */
+    public boolean isOverBudget() {
+        return OVER_BUDGET.equals(error);
+    }
+
+    /** Why the item failed, or null. */
+    public String getError() {
+        return error;
+    }
+
+    /** File content of a download, otherwise null. */
+    public byte[] getData() {
+        return data;
+    }
+
+    /** Size and modification time of the file after the call, or null when it failed. */
+    public FileStat getStat() {
+        return stat;
+    }
+}
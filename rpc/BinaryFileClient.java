@@ -0,0 +1,280 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link FileService} over one {@link BinaryProtocol} connection to a {@link BinaryRpcServer}.
+ * It is safe to call from many threads at once: every call is a frame tagged with a fresh id,
+ * and a reader thread hands each response to the call waiting for that id, so concurrent calls
+ * share the connection instead of each needing their own.
+ */
+public class BinaryFileClient implements FileService, AutoCloseable {
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final SocketChannel channel;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile IOException failure;
+
+    public BinaryFileClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Thread reader = new Thread(this::readResponses, "binary-rpc-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void upload(String name, byte[] data) throws RemoteException {
+        remote(() -> call(BinaryProtocol.UPLOAD, out -> {
+            BinaryProtocol.writeString(out, name);
+            out.writeInt(data.length);
+        }, data));
+    }
+
+    @Override
+    public byte[] download(String name) throws RemoteException, FileNotFoundException {
+        try {
+            return BinaryProtocol.readBytes(call(BinaryProtocol.DOWNLOAD, out -> BinaryProtocol.writeString(out, name),
+                    null));
+        } catch (FileNotFoundException | RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public FileStat stat(String name) throws IOException {
+        return BinaryProtocol.readStat(call(BinaryProtocol.STAT, out -> BinaryProtocol.writeString(out, name), null));
+    }
+
+    @Override
+    public byte[] read(String name, long offset, int length) throws IOException {
+        return BinaryProtocol.readBytes(call(BinaryProtocol.READ, out -> {
+            BinaryProtocol.writeString(out, name);
+            out.writeLong(offset);
+            out.writeInt(length);
+        }, null));
+    }
+
+    @Override
+    public List<BatchResult> uploadMany(List<UploadItem> items) throws RemoteException {
+        return remote(() -> BinaryProtocol.readResults(call(BinaryProtocol.UPLOAD_MANY, out -> {
+            out.writeInt(items.size());
+            for (UploadItem item : items) {
+                BinaryProtocol.writeString(out, item.getName());
+                BinaryProtocol.writeBytes(out, item.getData());
+            }
+        }, null)));
+    }
+
+    @Override
+    public List<BatchResult> downloadMany(List<String> names) throws RemoteException {
+        return remote(() -> BinaryProtocol.readResults(call(BinaryProtocol.DOWNLOAD_MANY,
+                out -> BinaryProtocol.writeNames(out, names), null)));
+    }
+
+    @Override
+    public List<BatchResult> statMany(List<String> names) throws RemoteException {
+        return remote(() -> BinaryProtocol.readResults(call(BinaryProtocol.STAT_MANY,
+                out -> BinaryProtocol.writeNames(out, names), null)));
+    }
+
+    @Override
+    public long openUpload(String name) throws IOException {
+        return call(BinaryProtocol.OPEN_UPLOAD, out -> BinaryProtocol.writeString(out, name), null).getLong();
+    }
+
+    @Override
+    public void writeChunk(long uploadId, long offset, byte[] data) throws IOException {
+        call(BinaryProtocol.WRITE_CHUNK, out -> {
+            out.writeLong(uploadId);
+            out.writeLong(offset);
+            out.writeInt(data.length);
+        }, data);
+    }
+
+    @Override
+    public long commit(long uploadId) throws IOException {
+        return call(BinaryProtocol.COMMIT, out -> out.writeLong(uploadId), null).getLong();
+    }
+
+    @Override
+    public void abort(long uploadId) throws RemoteException {
+        remote(() -> call(BinaryProtocol.ABORT, out -> out.writeLong(uploadId), null));
+    }
+
+    @Override
+    public long openDownload(String name) throws IOException {
+        return call(BinaryProtocol.OPEN_DOWNLOAD, out -> BinaryProtocol.writeString(out, name), null).getLong();
+    }
+
+    @Override
+    public byte[] readChunk(long downloadId, int maxLength) throws IOException {
+        return BinaryProtocol.readBytes(call(BinaryProtocol.READ_CHUNK, out -> {
+            out.writeLong(downloadId);
+            out.writeInt(maxLength);
+        }, null));
+    }
+
+    @Override
+    public void closeDownload(long downloadId) throws RemoteException {
+        remote(() -> call(BinaryProtocol.CLOSE_DOWNLOAD, out -> out.writeLong(downloadId), null));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** False once the connection has failed or been closed; every later call would fail too. */
+    public boolean isOpen() {
+        return failure == null && channel.isOpen();
+    }
+
+    /**
+     * Sends one request and waits for its response body. A trailing byte array (whose length the
+     * body already wrote) goes out as its own buffer instead of being copied into the frame.
+     */
+    private ByteBuffer call(byte method, Body body, byte[] trailer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        body.write(new DataOutputStream(bytes));
+        int trailerLength = trailer == null ? 0 : trailer.length;
+        long length = (long) BinaryProtocol.HEADER_SIZE + bytes.size() + trailerLength;
+        if (length > BinaryProtocol.MAX_FRAME) {
+            throw new IOException("Request of " + length + " bytes is too large for one call");
+        }
+        long id = nextId.incrementAndGet();
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + BinaryProtocol.HEADER_SIZE);
+        header.putInt((int) length).putLong(id).put(method).flip();
+        ByteBuffer[] frame = trailer == null
+                ? new ByteBuffer[] {header, ByteBuffer.wrap(bytes.toByteArray())}
+                : new ByteBuffer[] {header, ByteBuffer.wrap(bytes.toByteArray()), ByteBuffer.wrap(trailer)};
+
+        CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+        pending.put(id, response);
+        writeLock.lock();
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            long remaining = length + Integer.BYTES;
+            while (remaining > 0) {
+                remaining -= channel.write(frame);
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+        return await(response);
+    }
+
+    private static ByteBuffer await(CompletableFuture<ByteBuffer> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void readResponses() {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        // Leading slices of responses split over several frames, by request id.
+        Map<Long, List<ByteBuffer>> partials = new HashMap<>();
+        try {
+            ByteBuffer frame;
+            while ((frame = BinaryProtocol.readFrame(channel, lengthBuffer)) != null) {
+                long id = frame.getLong();
+                byte status = frame.get();
+                if (status == BinaryProtocol.STATUS_PARTIAL) {
+                    partials.computeIfAbsent(id, key -> new ArrayList<>()).add(frame);
+                    continue;
+                }
+                List<ByteBuffer> slices = partials.remove(id);
+                if (slices != null) {
+                    slices.add(frame);
+                    frame = join(slices);
+                }
+                CompletableFuture<ByteBuffer> response = pending.remove(id);
+                if (response == null) {
+                    continue;
+                }
+                if (status == BinaryProtocol.STATUS_OK) {
+                    response.complete(frame);
+                } else {
+                    byte kind = frame.get();
+                    String message = BinaryProtocol.readString(frame);
+                    response.completeExceptionally(kind == BinaryProtocol.ERROR_NOT_FOUND
+                            ? new FileNotFoundException(message) : new IOException(message));
+                }
+            }
+            failAll(new IOException("Server closed the connection"));
+        } catch (IOException e) {
+            failAll(e);
+        }
+    }
+
+    private static ByteBuffer join(List<ByteBuffer> slices) {
+        int length = 0;
+        for (ByteBuffer slice : slices) {
+            length += slice.remaining();
+        }
+        ByteBuffer joined = ByteBuffer.allocate(length);
+        for (ByteBuffer slice : slices) {
+            joined.put(slice);
+        }
+        return joined.flip();
+    }
+
+    private void failAll(IOException e) {
+        failure = e;
+        for (Long id : pending.keySet()) {
+            CompletableFuture<ByteBuffer> response = pending.remove(id);
+            if (response != null) {
+                response.completeExceptionally(e);
+            }
+        }
+    }
+
+    private interface IoCall<T> {
+        T run() throws IOException;
+    }
+
+    /** For methods whose FileService signature only allows RemoteException. */
+    private static <T> T remote(IoCall<T> call) throws RemoteException {
+        try {
+            return call.run();
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format of the binary FileService transport. Every frame is an int length (of what
+ * follows), a long request id and one byte: the method in requests, the status in responses.
+ * Many requests may be outstanding on one connection; responses carry the id of their request
+ * and may arrive in any order.
+ *
+ * <p>Arguments and results are big-endian ints and longs, strings as int length plus UTF-8, and
+ * byte arrays as int length plus bytes. A byte array is always the last field, so a response can
+ * stream it straight from a file after the header. Error responses carry a byte kind
+ * ({@link #ERROR_NOT_FOUND} or {@link #ERROR_IO}) and a message string.
+ *
+ * <p>A large response body may be split over several frames with the same id: all but the last
+ * have status {@link #STATUS_PARTIAL}, the last has the real status, and the body is their
+ * contents in order. Other responses on the connection can go out between them.
+ */
+final class BinaryProtocol {
+    static final byte UPLOAD = 1;
+    static final byte DOWNLOAD = 2;
+    static final byte STAT = 3;
+    static final byte READ = 4;
+    static final byte OPEN_UPLOAD = 5;
+    static final byte WRITE_CHUNK = 6;
+    static final byte COMMIT = 7;
+    static final byte ABORT = 8;
+    static final byte OPEN_DOWNLOAD = 9;
+    static final byte READ_CHUNK = 10;
+    static final byte CLOSE_DOWNLOAD = 11;
+    static final byte UPLOAD_MANY = 12;
+    static final byte DOWNLOAD_MANY = 13;
+    static final byte STAT_MANY = 14;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    static final byte STATUS_PARTIAL = 2;
+    static final byte ERROR_NOT_FOUND = 1;
+    static final byte ERROR_IO = 2;
+
+    /** Request id and method/status byte that follow the length. */
+    static final int HEADER_SIZE = Long.BYTES + 1;
+    /** Largest frame either side accepts; whole-file calls above this must stream instead. */
+    static final int MAX_FRAME = (int) FileService.MAX_BATCH_BYTES + 1024 * 1024;
+
+    private BinaryProtocol() {
+    }
+
+    /** Reads one frame body (everything after the length) into a heap buffer. */
+    static ByteBuffer readFrame(ReadableByteChannel channel, ByteBuffer lengthBuffer) throws IOException {
+        int length = readFrameLength(channel, lengthBuffer);
+        return length < 0 ? null : readFrameBody(channel, length);
+    }
+
+    /** Reads and checks the length of the next frame; -1 at a clean end of stream between frames. */
+    static int readFrameLength(ReadableByteChannel channel, ByteBuffer lengthBuffer) throws IOException {
+        lengthBuffer.clear();
+        if (!readFully(channel, lengthBuffer)) {
+            return -1;
+        }
+        int length = lengthBuffer.flip().getInt();
+        if (length < HEADER_SIZE || length > MAX_FRAME) {
+            throw new IOException("Bad frame length " + length);
+        }
+        return length;
+    }
+
+    /** Reads the body of a frame whose length {@link #readFrameLength} returned. */
+    static ByteBuffer readFrameBody(ReadableByteChannel channel, int length) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        if (!readFully(channel, frame)) {
+            throw new IOException("Connection closed inside a frame");
+        }
+        return frame.flip();
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new IOException("Connection closed inside a frame");
+            }
+        }
+        return true;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    static byte[] readBytes(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Bad field length " + length);
+        }
+        byte[] data = new byte[length];
+        in.get(data);
+        return data;
+    }
+
+    static void writeStat(DataOutputStream out, FileStat stat) throws IOException {
+        writeString(out, stat.getName());
+        out.writeLong(stat.getSize());
+        out.writeLong(stat.getLastModified());
+    }
+
+    static FileStat readStat(ByteBuffer in) throws IOException {
+        return new FileStat(readString(in), in.getLong(), in.getLong());
+    }
+
+    static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            writeString(out, name);
+        }
+    }
+
+    static List<String> readNames(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / Integer.BYTES) {
+            throw new IOException("Bad item count " + count);
+        }
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(readString(in));
+        }
+        return names;
+    }
+
+    static void writeResults(DataOutputStream out, List<BatchResult> results) throws IOException {
+        out.writeInt(results.size());
+        for (BatchResult result : results) {
+            writeString(out, result.getName());
+            if (!result.isOk()) {
+                out.writeByte(STATUS_ERROR);
+                writeString(out, result.getError());
+                continue;
+            }
+            out.writeByte(STATUS_OK);
+            out.writeBoolean(result.getStat() != null);
+            if (result.getStat() != null) {
+                writeStat(out, result.getStat());
+            }
+            out.writeBoolean(result.getData() != null);
+            if (result.getData() != null) {
+                writeBytes(out, result.getData());
+            }
+        }
+    }
+
+    static List<BatchResult> readResults(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Bad item count " + count);
+        }
+        List<BatchResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            if (in.get() != STATUS_OK) {
+                results.add(BatchResult.failed(name, readString(in)));
+                continue;
+            }
+            FileStat stat = in.get() != 0 ? readStat(in) : null;
+            byte[] data = in.get() != 0 ? readBytes(in) : null;
+            results.add(BatchResult.ok(name, data, stat));
+        }
+        return results;
+    }
+}
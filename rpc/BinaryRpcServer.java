@@ -0,0 +1,285 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves {@link FileServiceImpl} over the {@link BinaryProtocol} instead of RMI. Each connection
+ * has one reader; every request it reads runs on its own virtual thread, and responses are
+ * written back as they finish, so one slow call does not hold up the others on the connection.
+ * Large responses go out in slices, so a big download delays the others by one slice at a time,
+ * not by the whole file. File contents of downloads and reads go from the file to the socket with
+ * transferTo.
+ */
+public class BinaryRpcServer {
+    private static final int ACCEPT_BACKLOG = 1024;
+    // Requests of one connection being worked on at once; the reader waits beyond this.
+    private static final int MAX_IN_FLIGHT = 256;
+    // Request bytes of one connection buffered at once; one frame of the largest size always fits.
+    private static final int MAX_IN_FLIGHT_BYTES = BinaryProtocol.MAX_FRAME;
+    // Largest piece of one response written while holding the connection; see BinaryProtocol.
+    private static final int SLICE_BYTES = 1024 * 1024;
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final ReentrantLock writeLock = new ReentrantLock();
+        final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        final Semaphore inFlightBytes = new Semaphore(MAX_IN_FLIGHT_BYTES);
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean durable = false;
+        long commitWindowMillis = 2;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--durable")) {
+                durable = true;
+            } else if (arg.startsWith("--commit-window-ms=")) {
+                commitWindowMillis = Long.parseLong(arg.substring("--commit-window-ms=".length()));
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[0]);
+        String outputDir = args.length > 0 ? args[0] : "received_files_rpc";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 1100;
+
+        Path baseDir = Paths.get(outputDir).toAbsolutePath();
+        FileServiceImpl service = new FileServiceImpl(baseDir, durable, commitWindowMillis);
+        // Constructing it exported it over RMI; this server is its only way in.
+        UnicastRemoteObject.unexportObject(service, true);
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+
+        System.out.printf("[+] Binary FileService on port %d, storing files at %s%n", port, baseDir);
+        if (durable) {
+            System.out.printf("[+] Durable stores, group commit window %d ms%n", commitWindowMillis);
+        }
+        System.out.println("[+] Press Ctrl+C to stop");
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            threads.execute(() -> serve(new Connection(channel), service, threads));
+        }
+    }
+
+    private static void serve(Connection connection, FileServiceImpl service, ExecutorService threads) {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        try (SocketChannel channel = connection.channel) {
+            int length;
+            while ((length = BinaryProtocol.readFrameLength(channel, lengthBuffer)) >= 0) {
+                connection.inFlight.acquire();
+                // Reserve the request's bytes before buffering it, so a client cannot pile up
+                // requests faster than they are handled.
+                int permits = length;
+                connection.inFlightBytes.acquire(permits);
+                ByteBuffer request;
+                try {
+                    request = BinaryProtocol.readFrameBody(channel, length);
+                } catch (IOException e) {
+                    connection.inFlightBytes.release(permits);
+                    connection.inFlight.release();
+                    throw e;
+                }
+                threads.execute(() -> {
+                    try {
+                        handle(connection, service, request);
+                    } finally {
+                        connection.inFlightBytes.release(permits);
+                        connection.inFlight.release();
+                    }
+                });
+            }
+            // Let answers to the last requests go out before the socket closes.
+            connection.inFlight.acquire(MAX_IN_FLIGHT);
+        } catch (IOException e) {
+            String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            System.out.println("[!] " + reason);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void handle(Connection connection, FileServiceImpl service, ByteBuffer request) {
+        long id = request.getLong();
+        byte method = request.get();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            switch (method) {
+                case BinaryProtocol.UPLOAD -> service.upload(BinaryProtocol.readString(request),
+                        BinaryProtocol.readBytes(request));
+                case BinaryProtocol.DOWNLOAD -> {
+                    sendDownload(connection, id, service.existingFile(BinaryProtocol.readString(request)));
+                    return;
+                }
+                case BinaryProtocol.STAT -> BinaryProtocol.writeStat(out,
+                        service.stat(BinaryProtocol.readString(request)));
+                case BinaryProtocol.READ -> {
+                    sendRange(connection, id, service.existingFile(BinaryProtocol.readString(request)),
+                            request.getLong(), request.getInt());
+                    return;
+                }
+                case BinaryProtocol.OPEN_UPLOAD -> out.writeLong(
+                        service.openUpload(BinaryProtocol.readString(request)));
+                case BinaryProtocol.WRITE_CHUNK -> service.writeChunk(request.getLong(), request.getLong(),
+                        BinaryProtocol.readBytes(request));
+                case BinaryProtocol.COMMIT -> out.writeLong(service.commit(request.getLong()));
+                case BinaryProtocol.ABORT -> service.abort(request.getLong());
+                case BinaryProtocol.OPEN_DOWNLOAD -> out.writeLong(
+                        service.openDownload(BinaryProtocol.readString(request)));
+                case BinaryProtocol.READ_CHUNK -> {
+                    FileServiceImpl.Chunk chunk = service.nextChunk(request.getLong(), request.getInt());
+                    sendFile(connection, id, chunk.channel(), chunk.position(), chunk.length());
+                    return;
+                }
+                case BinaryProtocol.CLOSE_DOWNLOAD -> service.closeDownload(request.getLong());
+                case BinaryProtocol.UPLOAD_MANY -> {
+                    int count = request.getInt();
+                    if (count < 0 || count > request.remaining()) {
+                        throw new IOException("Bad item count " + count);
+                    }
+                    List<UploadItem> items = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        String name = BinaryProtocol.readString(request);
+                        items.add(new UploadItem(name, BinaryProtocol.readBytes(request)));
+                    }
+                    BinaryProtocol.writeResults(out, service.uploadMany(items));
+                }
+                case BinaryProtocol.DOWNLOAD_MANY -> BinaryProtocol.writeResults(out,
+                        service.downloadMany(BinaryProtocol.readNames(request)));
+                case BinaryProtocol.STAT_MANY -> BinaryProtocol.writeResults(out,
+                        service.statMany(BinaryProtocol.readNames(request)));
+                default -> throw new IOException("Unknown method " + method);
+            }
+            respond(connection, id, BinaryProtocol.STATUS_OK, body.toByteArray());
+        } catch (FileNotFoundException e) {
+            respondError(connection, id, BinaryProtocol.ERROR_NOT_FOUND, e);
+        } catch (IOException | RuntimeException e) {
+            respondError(connection, id, BinaryProtocol.ERROR_IO, e);
+        }
+    }
+
+    private static void sendDownload(Connection connection, long id, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > BinaryProtocol.MAX_FRAME - 64) {
+                throw new IOException(file.getFileName() + " is too large for one call; use openDownload");
+            }
+            sendFile(connection, id, channel, 0, (int) size);
+            System.out.printf("[+] Served %s (%d bytes)%n", file.getFileName(), size);
+        }
+    }
+
+    private static void sendRange(Connection connection, long id, Path file, long offset, int length)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = Math.min(Math.max(offset, 0), size);
+            int count = (int) Math.min(Math.max(0, Math.min(length, FileService.MAX_CHUNK_SIZE)), size - start);
+            sendFile(connection, id, channel, start, count);
+        }
+    }
+
+    /**
+     * Sends a byte-array result whose contents are a range of a file, without copying it through the
+     * heap. The bytes go out in slices, each its own frame, and the connection is free for other
+     * responses between them.
+     */
+    private static void sendFile(Connection connection, long id, FileChannel file, long position, int count)
+            throws IOException {
+        int sent = 0;
+        do {
+            int slice = Math.min(SLICE_BYTES, count - sent);
+            boolean first = sent == 0;
+            int prefix = first ? Integer.BYTES : 0;
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + BinaryProtocol.HEADER_SIZE + prefix);
+            header.putInt(BinaryProtocol.HEADER_SIZE + prefix + slice).putLong(id)
+                    .put(sent + slice == count ? BinaryProtocol.STATUS_OK : BinaryProtocol.STATUS_PARTIAL);
+            if (first) {
+                header.putInt(count);
+            }
+            header.flip();
+            connection.writeLock.lock();
+            try {
+                writeFully(connection.channel, header);
+                long written = 0;
+                while (written < slice) {
+                    long n = file.transferTo(position + sent + written, slice - written, connection.channel);
+                    // Zero can just mean the socket buffer is full; only a short file is fatal.
+                    if (n <= 0 && position + sent + written >= file.size()) {
+                        // The promised length is already on the wire; the connection cannot recover.
+                        connection.channel.close();
+                        throw new IOException("File ended after " + (sent + written) + " of " + count + " bytes");
+                    }
+                    written += n;
+                }
+            } finally {
+                connection.writeLock.unlock();
+            }
+            sent += slice;
+        } while (sent < count);
+    }
+
+    /** Sends a result, in slices like {@link #sendFile} when it is large. */
+    private static void respond(Connection connection, long id, byte status, byte[] body) {
+        int sent = 0;
+        do {
+            int slice = Math.min(SLICE_BYTES, body.length - sent);
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + BinaryProtocol.HEADER_SIZE);
+            header.putInt(BinaryProtocol.HEADER_SIZE + slice).putLong(id)
+                    .put(sent + slice == body.length ? status : BinaryProtocol.STATUS_PARTIAL).flip();
+            connection.writeLock.lock();
+            try {
+                writeFully(connection.channel, header);
+                writeFully(connection.channel, ByteBuffer.wrap(body, sent, slice));
+            } catch (IOException e) {
+                // The client is gone; the reader notices and closes the connection.
+                return;
+            } finally {
+                connection.writeLock.unlock();
+            }
+            sent += slice;
+        } while (sent < body.length);
+    }
+
+    private static void respondError(Connection connection, long id, byte kind, Exception e) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeByte(kind);
+            BinaryProtocol.writeString(out, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            respond(connection, id, BinaryProtocol.STATUS_ERROR, body.toByteArray());
+        } catch (IOException impossible) {
+            throw new IllegalStateException(impossible);
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
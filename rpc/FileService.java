@@ -1,11 +1,23 @@
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Simple RPC interface for file transfer.
+ *
+ * <p>{@link #upload} and {@link #download} move a whole file as one array. Large files should use
+ * the streaming calls instead, which move at most {@link #MAX_CHUNK_SIZE} bytes per call so heap
+ * use on both sides stays constant whatever the file size.
  */
 public interface FileService extends Remote {
+    /** Largest chunk accepted by {@link #writeChunk} or returned by {@link #readChunk}. */
+    int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /** Largest total of file bytes carried by one batch call, in either direction. */
+    long MAX_BATCH_BYTES = 64L * 1024 * 1024;
+
     /**
      * Upload a file to the server.
      *
@@ -22,4 +34,87 @@ public interface FileService extends Remote {
      * @throws FileNotFoundException when the file does not exist
      */
     byte[] download(String name) throws RemoteException, FileNotFoundException;
+
+    /**
+     * Size and modification time of a stored file, to check it before fetching.
+     *
+     * @throws FileNotFoundException when the file does not exist
+     */
+    FileStat stat(String name) throws IOException;
+
+    /**
+     * Read part of a stored file. Reads past the end are cut short.
+     *
+     * @param offset first byte to read
+     * @param length at most this many bytes, capped at {@link #MAX_CHUNK_SIZE}
+     * @throws FileNotFoundException when the file does not exist
+     */
+    byte[] read(String name, long offset, int length) throws IOException;
+
+    /**
+     * Upload many files in one call. Items are stored in parallel.
+     *
+     * @return one result per item, in item order; the stat of each stored file
+     */
+    List<BatchResult> uploadMany(List<UploadItem> items) throws RemoteException;
+
+    /**
+     * Download many files in one call. Files that would take the reply past {@link #MAX_BATCH_BYTES}
+     * fail individually and should be fetched on their own.
+     *
+     * @return one result per name, in name order; the content and stat of each file
+     */
+    List<BatchResult> downloadMany(List<String> names) throws RemoteException;
+
+    /**
+     * Stat many files in one call.
+     *
+     * @return one result per name, in name order
+     */
+    List<BatchResult> statMany(List<String> names) throws RemoteException;
+
+    /**
+     * Start a streaming upload. Chunks go to a temp file that replaces {@code name} on commit.
+     *
+     * @param name desired filename on the server
+     * @return upload session id
+     */
+    long openUpload(String name) throws IOException;
+
+    /**
+     * Write a chunk of an open upload at the given file offset.
+     *
+     * @throws IOException when the session is unknown or expired, or the chunk is too large
+     */
+    void writeChunk(long uploadId, long offset, byte[] data) throws IOException;
+
+    /**
+     * Publish an upload under its name and end the session.
+     *
+     * @return size of the stored file
+     */
+    long commit(long uploadId) throws IOException;
+
+    /** Drop an upload session and its temp file. Unknown ids are ignored. */
+    void abort(long uploadId) throws RemoteException;
+
+    /**
+     * Start a streaming download.
+     *
+     * @param name filename stored on the server
+     * @return download session id
+     * @throws FileNotFoundException when the file does not exist
+     */
+    long openDownload(String name) throws IOException;
+
+    /**
+     * Read the next chunk of an open download.
+     *
+     * @param maxLength at most this many bytes, capped at {@link #MAX_CHUNK_SIZE}
+     * @return the next bytes of the file, empty at the end
+     */
+    byte[] readChunk(long downloadId, int maxLength) throws IOException;
+
+    /** End a download session. Unknown ids are ignored. */
+    void closeDownload(long downloadId) throws RemoteException;
 }
@@ -1,32 +1,128 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 
 public class FileServiceImpl extends UnicastRemoteObject implements FileService {
+    // Sessions untouched for this long are assumed abandoned by a crashed client.
+    private static final long SESSION_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int BATCH_PARALLELISM = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /** An open streaming upload or download. */
+    private static final class Transfer {
+        final String name;
+        final Path target;
+        final Path temp; // null for downloads
+        final FileChannel channel;
+        long position; // next read offset of a download
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Transfer(String name, Path target, Path temp, FileChannel channel) {
+            this.name = name;
+            this.target = target;
+            this.temp = temp;
+            this.channel = channel;
+        }
+    }
+
     private final Path baseDir;
+    private final transient Map<Long, Transfer> uploads = new ConcurrentHashMap<>();
+    private final transient Map<Long, Transfer> downloads = new ConcurrentHashMap<>();
+    private final SecureRandom ids = new SecureRandom();
+    private final transient MappedFiles mappedFiles = new MappedFiles();
+    private final transient ExecutorService batchWorkers;
+    private final transient GroupCommitter committer; // null unless stores must survive a crash
 
     public FileServiceImpl(Path baseDir) throws RemoteException {
+        this(baseDir, false, 0);
+    }
+
+    /**
+     * With durable set, a store returns only once the file and its name are on disk. Stores
+     * finishing within commitWindowMillis of each other share their fsyncs.
+     */
+    public FileServiceImpl(Path baseDir, boolean durable, long commitWindowMillis) throws RemoteException {
         super();
         this.baseDir = baseDir;
+        this.committer = durable ? new GroupCommitter(commitWindowMillis) : null;
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::expireIdleSessions, 1, 1, TimeUnit.MINUTES);
+        // Batch items are mostly small file reads and writes; a few threads per core keep the disk busy.
+        batchWorkers = Executors.newFixedThreadPool(BATCH_PARALLELISM, r -> {
+            Thread thread = new Thread(r, "batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
     public void upload(String name, byte[] data) throws RemoteException {
         String safeName = Paths.get(name).getFileName().toString();
-        Path target = baseDir.resolve(safeName);
         try {
-            Files.createDirectories(baseDir);
-            Files.write(target, data);
+            store(safeName, data);
             System.out.printf("[+] Stored %s (%d bytes)%n", safeName, data.length);
         } catch (IOException e) {
             throw new RemoteException("Failed to save file: " + e.getMessage(), e);
         }
     }
 
+    private Path store(String safeName, byte[] data) throws IOException {
+        Path target = baseDir.resolve(safeName);
+        Files.createDirectories(baseDir);
+        // Replace by rename so range readers holding a mapping of the old file are unaffected.
+        Path temp = Files.createTempFile(baseDir, "." + safeName + ".", ".upload");
+        try {
+            if (committer == null) {
+                Files.write(temp, data);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    throw e;
+                }
+                committer.commit(channel, temp, target);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        mappedFiles.invalidate(target);
+        return target;
+    }
+
     @Override
     public byte[] download(String name) throws RemoteException, FileNotFoundException {
         String safeName = Paths.get(name).getFileName().toString();
@@ -42,4 +138,288 @@ public class FileServiceImpl extends UnicastRemoteObject implements FileService
             throw new RemoteException("Failed to read file: " + e.getMessage(), e);
         }
     }
+
+    @Override
+    public FileStat stat(String name) throws IOException {
+        String safeName = Paths.get(name).getFileName().toString();
+        BasicFileAttributes attributes = attributes(baseDir.resolve(safeName), safeName);
+        return new FileStat(safeName, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public byte[] read(String name, long offset, int length) throws IOException {
+        String safeName = Paths.get(name).getFileName().toString();
+        Path target = baseDir.resolve(safeName);
+        BasicFileAttributes attributes = attributes(target, safeName);
+        return mappedFiles.read(target, attributes.size(), attributes.lastModifiedTime().toMillis(), offset,
+                Math.min(length, MAX_CHUNK_SIZE));
+    }
+
+    @Override
+    public List<BatchResult> uploadMany(List<UploadItem> items) throws RemoteException {
+        AtomicLong bytes = new AtomicLong();
+        List<BatchResult> results = inParallel(items.size(), i -> {
+            UploadItem item = items.get(i);
+            String safeName = Paths.get(item.getName()).getFileName().toString();
+            Path target = store(safeName, item.getData());
+            bytes.addAndGet(item.getData().length);
+            BasicFileAttributes attributes = attributes(target, safeName);
+            return BatchResult.ok(item.getName(), null,
+                    new FileStat(safeName, attributes.size(), attributes.lastModifiedTime().toMillis()));
+        }, i -> items.get(i).getName());
+        System.out.printf("[+] Stored %d of %d files in a batch (%d bytes)%n", succeeded(results), items.size(),
+                bytes.get());
+        return results;
+    }
+
+    @Override
+    public List<BatchResult> downloadMany(List<String> names) throws RemoteException {
+        AtomicLong budget = new AtomicLong(MAX_BATCH_BYTES);
+        List<BatchResult> results = inParallel(names.size(), i -> {
+            String safeName = Paths.get(names.get(i)).getFileName().toString();
+            Path target = baseDir.resolve(safeName);
+            BasicFileAttributes attributes = attributes(target, safeName);
+            if (budget.addAndGet(-attributes.size()) < 0) {
+                budget.addAndGet(attributes.size());
+                throw new IOException(BatchResult.OVER_BUDGET);
+            }
+            byte[] data = Files.readAllBytes(target);
+            return BatchResult.ok(names.get(i), data,
+                    new FileStat(safeName, data.length, attributes.lastModifiedTime().toMillis()));
+        }, names::get);
+        System.out.printf("[+] Served %d of %d files in a batch (%d bytes)%n", succeeded(results), names.size(),
+                MAX_BATCH_BYTES - budget.get());
+        return results;
+    }
+
+    @Override
+    public List<BatchResult> statMany(List<String> names) throws RemoteException {
+        return inParallel(names.size(), i -> BatchResult.ok(names.get(i), null, stat(names.get(i))), names::get);
+    }
+
+    private interface ItemTask {
+        BatchResult run(int index) throws IOException;
+    }
+
+    /** Runs one task per item on the batch pool; a failing item becomes a failed result. */
+    private List<BatchResult> inParallel(int count, ItemTask task, IntFunction<String> name) throws RemoteException {
+        List<Callable<BatchResult>> calls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            calls.add(() -> {
+                try {
+                    return task.run(index);
+                } catch (IOException | RuntimeException e) {
+                    String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                    return BatchResult.failed(name.apply(index), reason);
+                }
+            });
+        }
+        List<BatchResult> results = new ArrayList<>(count);
+        try {
+            for (Future<BatchResult> future : batchWorkers.invokeAll(calls)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while processing a batch", e);
+        } catch (ExecutionException e) {
+            throw new RemoteException("Batch item failed", e.getCause());
+        }
+        return results;
+    }
+
+    private static int succeeded(List<BatchResult> results) {
+        int ok = 0;
+        for (BatchResult result : results) {
+            if (result.isOk()) {
+                ok++;
+            }
+        }
+        return ok;
+    }
+
+    @Override
+    public long openUpload(String name) throws IOException {
+        String safeName = Paths.get(name).getFileName().toString();
+        Path target = baseDir.resolve(safeName);
+        Files.createDirectories(baseDir);
+        long id = newId(uploads);
+        Path temp = baseDir.resolve("." + safeName + "." + Long.toHexString(id) + ".upload");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        uploads.put(id, new Transfer(safeName, target, temp, channel));
+        return id;
+    }
+
+    @Override
+    public void writeChunk(long uploadId, long offset, byte[] data) throws IOException {
+        Transfer upload = session(uploads, uploadId, "upload");
+        if (data.length > MAX_CHUNK_SIZE || offset < 0) {
+            throw new IOException("Bad chunk: " + data.length + " bytes at offset " + offset);
+        }
+        // Positional writes let a client keep several chunks of one upload in flight.
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            upload.channel.write(buffer, offset + buffer.position());
+        }
+    }
+
+    @Override
+    public long commit(long uploadId) throws IOException {
+        Transfer upload = session(uploads, uploadId, "upload");
+        uploads.remove(uploadId);
+        long size;
+        try {
+            size = upload.channel.size();
+            if (committer == null) {
+                upload.channel.close();
+                Files.move(upload.temp, upload.target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                committer.commit(upload.channel, upload.temp, upload.target);
+            }
+            mappedFiles.invalidate(upload.target);
+        } catch (IOException e) {
+            discard(upload);
+            throw e;
+        }
+        System.out.printf("[+] Stored %s (%d bytes, streamed)%n", upload.name, size);
+        return size;
+    }
+
+    @Override
+    public void abort(long uploadId) {
+        Transfer upload = uploads.remove(uploadId);
+        if (upload != null) {
+            discard(upload);
+        }
+    }
+
+    @Override
+    public long openDownload(String name) throws IOException {
+        String safeName = Paths.get(name).getFileName().toString();
+        Path target = baseDir.resolve(safeName);
+        if (!Files.isRegularFile(target)) {
+            throw new FileNotFoundException("File not found: " + safeName);
+        }
+        FileChannel channel = FileChannel.open(target, StandardOpenOption.READ);
+        long id = newId(downloads);
+        downloads.put(id, new Transfer(safeName, target, null, channel));
+        return id;
+    }
+
+    @Override
+    public byte[] readChunk(long downloadId, int maxLength) throws IOException {
+        Transfer download = session(downloads, downloadId, "download");
+        synchronized (download) {
+            long remaining = download.channel.size() - download.position;
+            int length = (int) Math.max(0, Math.min(remaining, Math.min(maxLength, MAX_CHUNK_SIZE)));
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (download.channel.read(buffer, download.position + buffer.position()) == -1) {
+                    break; // the file shrank; hand back what there is
+                }
+            }
+            download.position += buffer.position();
+            return buffer.position() == length ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /** A byte range of an open download, for transports that send it straight from the file. */
+    record Chunk(FileChannel channel, long position, int length) {
+    }
+
+    /** Claims the next chunk of a download without reading it. */
+    Chunk nextChunk(long downloadId, int maxLength) throws IOException {
+        Transfer download = session(downloads, downloadId, "download");
+        synchronized (download) {
+            long remaining = download.channel.size() - download.position;
+            int length = (int) Math.max(0, Math.min(remaining, Math.min(maxLength, MAX_CHUNK_SIZE)));
+            Chunk chunk = new Chunk(download.channel, download.position, length);
+            download.position += length;
+            return chunk;
+        }
+    }
+
+    /** Path of a stored file, for transports that read it themselves. */
+    Path existingFile(String name) throws IOException {
+        String safeName = Paths.get(name).getFileName().toString();
+        Path target = baseDir.resolve(safeName);
+        attributes(target, safeName);
+        return target;
+    }
+
+    @Override
+    public void closeDownload(long downloadId) {
+        Transfer download = downloads.remove(downloadId);
+        if (download != null) {
+            closeQuietly(download.channel);
+            System.out.printf("[+] Served %s (%d bytes, streamed)%n", download.name, download.position);
+        }
+    }
+
+    private static BasicFileAttributes attributes(Path target, String safeName) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+            if (attributes.isRegularFile()) {
+                return attributes;
+            }
+        } catch (NoSuchFileException e) {
+            // reported below
+        }
+        throw new FileNotFoundException("File not found: " + safeName);
+    }
+
+    private Transfer session(Map<Long, Transfer> sessions, long id, String kind) throws IOException {
+        Transfer transfer = sessions.get(id);
+        if (transfer == null) {
+            throw new IOException("Unknown or expired " + kind + " session " + Long.toHexString(id));
+        }
+        transfer.lastUsed = System.currentTimeMillis();
+        return transfer;
+    }
+
+    private long newId(Map<Long, Transfer> sessions) {
+        long id;
+        do {
+            id = ids.nextLong();
+        } while (sessions.containsKey(id));
+        return id;
+    }
+
+    private void expireIdleSessions() {
+        long cutoff = System.currentTimeMillis() - SESSION_IDLE_MILLIS;
+        uploads.entrySet().removeIf(entry -> {
+            if (entry.getValue().lastUsed >= cutoff) {
+                return false;
+            }
+            System.out.printf("[!] Upload of %s abandoned, discarding%n", entry.getValue().name);
+            discard(entry.getValue());
+            return true;
+        });
+        downloads.entrySet().removeIf(entry -> {
+            if (entry.getValue().lastUsed >= cutoff) {
+                return false;
+            }
+            closeQuietly(entry.getValue().channel);
+            return true;
+        });
+    }
+
+    private static void discard(Transfer upload) {
+        closeQuietly(upload.channel);
+        try {
+            Files.deleteIfExists(upload.temp);
+        } catch (IOException ignored) {
+            // left behind as a hidden temp file
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing useful to do
+        }
+    }
 }
@@ -0,0 +1,36 @@
+import java.io.Serializable;
+
+/**
+ * Size and modification time of a file stored by the FileService.
+ */
+public final class FileStat implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final long size;
+    private final long lastModified;
+
+    public FileStat(String name, long size, long lastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /** Milliseconds since the epoch. */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + size + " bytes, modified " + java.time.Instant.ofEpochMilli(lastModified) + ")";
+    }
+}
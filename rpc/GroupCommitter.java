@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes written temp files durably, many at a time. Uploads hand over their open temp file
+ * and wait; a committer thread collects everything that arrives within the commit window, fsyncs
+ * the data of the whole group concurrently (the file system folds concurrent fsyncs into few
+ * journal commits), renames each file into place and then fsyncs each affected directory once
+ * for the whole group. After a crash a published file is complete, and an unpublished one
+ * never shows up under its name.
+ */
+final class GroupCommitter {
+    private static final int MAX_GROUP = 1024;
+    private static final int FORCE_PARALLELISM = 16;
+
+    private record Pending(FileChannel data, Path temp, Path target, CompletableFuture<Void> done) {
+    }
+
+    private final long windowNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService forcers = Executors.newFixedThreadPool(FORCE_PARALLELISM, r -> {
+        Thread thread = new Thread(r, "group-commit-fsync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    GroupCommitter(long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        Thread committer = new Thread(this::run, "group-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Makes the written data of {@code temp} durable and renames it to {@code target}. Closes
+     * {@code data} and returns once the rename itself is durable.
+     */
+    void commit(FileChannel data, Path temp, Path target) throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        queue.add(new Pending(data, temp, target, done));
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the commit", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    private void run() {
+        List<Pending> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(queue.take());
+                // Whatever arrives within the window shares this group's fsyncs.
+                long deadline = System.nanoTime() + windowNanos;
+                while (group.size() < MAX_GROUP) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // daemon thread; keep serving
+            }
+            commitGroup(group);
+            group.clear();
+        }
+    }
+
+    private void commitGroup(List<Pending> group) {
+        List<Future<?>> forces = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            forces.add(forcers.submit(() -> {
+                try (FileChannel data = pending.data()) {
+                    data.force(true);
+                }
+                return null;
+            }));
+        }
+
+        Set<Path> directories = new HashSet<>();
+        List<Pending> renamed = new ArrayList<>(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            Pending pending = group.get(i);
+            try {
+                forces.get(i).get();
+                Files.move(pending.temp(), pending.target(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                directories.add(pending.target().getParent());
+                renamed.add(pending);
+            } catch (InterruptedException | ExecutionException | IOException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                pending.done().completeExceptionally(cause);
+            }
+        }
+
+        IOException directoryFailure = null;
+        for (Path directory : directories) {
+            try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+                dir.force(true);
+            } catch (IOException e) {
+                directoryFailure = e;
+            }
+        }
+        for (Pending pending : renamed) {
+            if (directoryFailure == null) {
+                pending.done().complete(null);
+            } else {
+                pending.done().completeExceptionally(directoryFailure);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves range reads for {@link FileServiceImpl}. A file's first range read is a positional
+ * {@link FileChannel} read; once the same version of a file is read again it is mapped, and later
+ * reads copy straight out of the page cache. A bounded number of mappings is kept,
+ * least recently used first out. A version is the file's size and modification time, so a file
+ * replaced on disk is read afresh. Files are always replaced by rename, never rewritten in place,
+ * so a mapping can never be truncated under a reader.
+ */
+final class MappedFiles {
+    private static final int MAX_MAPPINGS = 64;
+    private static final int MAX_SEEN = 4096;
+
+    private record Version(Path path, long size, long lastModified) {
+    }
+
+    private final LinkedHashMap<Version, MappedByteBuffer> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Version, Boolean> seen = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Version, Boolean> eldest) {
+            return size() > MAX_SEEN;
+        }
+    };
+
+    /** Reads up to length bytes at offset from a file of the given size and modification time. */
+    byte[] read(Path path, long size, long lastModified, long offset, int length) throws IOException {
+        long start = Math.min(Math.max(offset, 0), size);
+        int count = (int) Math.min(Math.max(length, 0), size - start);
+        byte[] data = new byte[count];
+        if (count == 0) {
+            return data;
+        }
+        Version version = new Version(path, size, lastModified);
+        ByteBuffer mapped = mapping(version);
+        if (mapped != null) {
+            mapped.get((int) start, data);
+            return data;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) == -1) {
+                    throw new IOException(path.getFileName() + " changed while it was being read");
+                }
+            }
+        }
+        return data;
+    }
+
+    synchronized void invalidate(Path path) {
+        mappings.keySet().removeIf(version -> version.path().equals(path));
+        seen.keySet().removeIf(version -> version.path().equals(path));
+    }
+
+    private ByteBuffer mapping(Version version) throws IOException {
+        synchronized (this) {
+            MappedByteBuffer mapped = mappings.get(version);
+            if (mapped != null) {
+                return mapped.duplicate();
+            }
+            // Only files read more than once are worth the cost of a mapping.
+            if (seen.put(version, Boolean.TRUE) == null || version.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(version.path(), StandardOpenOption.READ)) {
+            if (channel.size() != version.size()) {
+                return null;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, version.size());
+        }
+        synchronized (this) {
+            mappings.put(version, mapped);
+            Iterator<MappedByteBuffer> eldest = mappings.values().iterator();
+            while (mappings.size() > MAX_MAPPINGS && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return mapped.duplicate();
+    }
+}
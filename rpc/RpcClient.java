@@ -1,28 +1,59 @@
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.NotBoundException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
 public class RpcClient {
+    private static final int CHUNK_SIZE = AsyncFileClient.CHUNK_SIZE;
+    private static final int MAX_BATCH_ITEMS = 1024;
+    private static final int DEFAULT_PARALLELISM = 16;
+    private static final int MAX_IN_FLIGHT_BYTES = 256 * 1024 * 1024;
+
+    private static boolean binary;
+
     public static void main(String[] args) throws Exception {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--binary")) {
+                binary = true;
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[0]);
         if (args.length < 2) {
             printUsage();
             return;
         }
 
         String mode = args[0].toLowerCase();
-        if (!mode.equals("upload") && !mode.equals("download")) {
-            printUsage();
-            return;
-        }
-
         if (mode.equals("upload")) {
             doUpload(args);
-        } else {
+        } else if (mode.equals("download")) {
             doDownload(args);
+        } else if (mode.equals("stat")) {
+            doStat(args);
+        } else if (mode.equals("read") && args.length >= 4) {
+            doRead(args);
+        } else if (mode.equals("putdir")) {
+            doPutDir(args);
+        } else if (mode.equals("getlist")) {
+            doGetList(args);
+        } else if (mode.equals("putall")) {
+            doPutAll(args);
+        } else if (mode.equals("getall")) {
+            doGetAll(args);
+        } else {
+            printUsage();
         }
     }
 
@@ -36,39 +67,304 @@ public class RpcClient {
 
         String remoteName = args.length > 2 ? args[2] : filePath.getFileName().toString();
         String host = args.length > 3 ? args[3] : "127.0.0.1";
-        int port = args.length > 4 ? Integer.parseInt(args[4]) : 1099;
-
-        byte[] data = Files.readAllBytes(filePath);
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : defaultPort();
 
         FileService service = lookup(host, port);
-        service.upload(remoteName, data);
+        long size = AsyncFileClient.streamUpload(service, filePath, remoteName);
 
         System.out.printf("[+] Uploaded %s as %s (%d bytes)%n",
-                filePath.getFileName(), remoteName, data.length);
+                filePath.getFileName(), remoteName, size);
     }
 
     private static void doDownload(String[] args) throws IOException, NotBoundException {
         String remoteName = args[1];
         String host = args.length > 2 ? args[2] : "127.0.0.1";
-        int port = args.length > 3 ? Integer.parseInt(args[3]) : 1099;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : defaultPort();
         Path outputPath = args.length > 4
                 ? Paths.get(args[4]).toAbsolutePath()
                 : Paths.get(remoteName).toAbsolutePath();
 
         FileService service = lookup(host, port);
-        byte[] data = service.download(remoteName);
+        long size = AsyncFileClient.streamDownload(service, remoteName, outputPath);
+
+        System.out.printf("[+] Downloaded %s to %s (%d bytes)%n",
+                remoteName, outputPath, size);
+    }
+
+    /**
+     * putdir: uploads every regular file directly inside a directory. Files are grouped into
+     * batches of up to {@link FileService#MAX_BATCH_BYTES} and {@link #MAX_BATCH_ITEMS} files, one
+     * call each; files too large for a batch are streamed on their own.
+     */
+    private static void doPutDir(String[] args) throws IOException, NotBoundException {
+        Path dir = Paths.get(args[1]).toAbsolutePath();
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : defaultPort();
+        if (!Files.isDirectory(dir)) {
+            System.err.println("Directory not found: " + dir);
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(Files::isRegularFile).sorted().toList();
+        }
+
+        FileService service = lookup(host, port);
+        long start = System.nanoTime();
+        List<UploadItem> batch = new ArrayList<>();
+        long batchBytes = 0;
+        int calls = 0;
+        int failed = 0;
+        long total = 0;
+        for (Path file : files) {
+            long size = Files.size(file);
+            String name = file.getFileName().toString();
+            if (size > FileService.MAX_BATCH_BYTES / 4) {
+                total += AsyncFileClient.streamUpload(service, file, name);
+                calls++;
+                continue;
+            }
+            if (batchBytes + size > FileService.MAX_BATCH_BYTES || batch.size() == MAX_BATCH_ITEMS) {
+                failed += report(service.uploadMany(batch));
+                calls++;
+                batch.clear();
+                batchBytes = 0;
+            }
+            batch.add(new UploadItem(name, Files.readAllBytes(file)));
+            batchBytes += size;
+            total += size;
+        }
+        if (!batch.isEmpty()) {
+            failed += report(service.uploadMany(batch));
+            calls++;
+        }
+        System.out.printf("[+] Uploaded %d file(s), %d failed (%d bytes) in %d call(s), %.2f s%n",
+                files.size() - failed, failed, total, calls, (System.nanoTime() - start) / 1e9);
+    }
 
-        Path parent = outputPath.getParent();
-        if (parent != null) {
-            Files.createDirectories(parent);
+    /**
+     * getlist: downloads every name listed in a file, one per line. Sizes come from batched stat
+     * calls, then files are fetched in size-bounded batches like putdir.
+     */
+    private static void doGetList(String[] args) throws IOException, NotBoundException {
+        Path listFile = Paths.get(args[1]);
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : defaultPort();
+        Path outputDir = Paths.get(args.length > 4 ? args[4] : ".").toAbsolutePath();
+        List<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(listFile)) {
+            if (!line.isBlank()) {
+                names.add(line.trim());
+            }
         }
-        Files.write(outputPath, data);
+        Files.createDirectories(outputDir);
 
-        System.out.printf("[+] Downloaded %s to %s (%d bytes)%n",
-                remoteName, outputPath, data.length);
+        FileService service = lookup(host, port);
+        long start = System.nanoTime();
+        int calls = 0;
+        int failed = 0;
+        long total = 0;
+        List<FileStat> found = new ArrayList<>();
+        for (int from = 0; from < names.size(); from += MAX_BATCH_ITEMS) {
+            // subList views are not serializable; send a copy.
+            List<String> chunk = new ArrayList<>(names.subList(from, Math.min(names.size(), from + MAX_BATCH_ITEMS)));
+            for (BatchResult result : service.statMany(chunk)) {
+                if (result.isOk()) {
+                    found.add(result.getStat());
+                } else {
+                    System.out.printf("[!] %s: %s%n", result.getName(), result.getError());
+                    failed++;
+                }
+            }
+            calls++;
+        }
+
+        List<String> batch = new ArrayList<>();
+        List<BatchResult> failures = new ArrayList<>();
+        long batchBytes = 0;
+        for (FileStat stat : found) {
+            if (stat.getSize() > FileService.MAX_BATCH_BYTES / 4) {
+                total += AsyncFileClient.streamDownload(service, stat.getName(), outputDir.resolve(stat.getName()));
+                calls++;
+                continue;
+            }
+            if (batchBytes + stat.getSize() > FileService.MAX_BATCH_BYTES || batch.size() == MAX_BATCH_ITEMS) {
+                total += saveBatch(service, service.downloadMany(batch), outputDir, failures);
+                calls++;
+                batch.clear();
+                batchBytes = 0;
+            }
+            batch.add(stat.getName());
+            batchBytes += stat.getSize();
+        }
+        if (!batch.isEmpty()) {
+            total += saveBatch(service, service.downloadMany(batch), outputDir, failures);
+            calls++;
+        }
+        failed += report(failures);
+        System.out.printf("[+] Downloaded %d file(s), %d missing (%d bytes) in %d call(s), %.2f s%n",
+                found.size() - failures.size(), failed, total, calls, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Writes the files of a batch download. Files that no longer fit the batch are fetched alone;
+     * other failures, such as files deleted since the stat, are added to failures.
+     */
+    private static long saveBatch(FileService service, List<BatchResult> results, Path outputDir,
+            List<BatchResult> failures) throws IOException {
+        long bytes = 0;
+        for (BatchResult result : results) {
+            if (result.isOverBudget()) {
+                // Grown past the batch budget since the stat; fetch it alone.
+                bytes += AsyncFileClient.streamDownload(service, result.getName(), outputDir.resolve(result.getName()));
+                continue;
+            }
+            if (!result.isOk()) {
+                failures.add(result);
+                continue;
+            }
+            Files.write(outputDir.resolve(result.getStat().getName()), result.getData());
+            bytes += result.getData().length;
+        }
+        return bytes;
+    }
+
+    private static int report(List<BatchResult> results) {
+        int failed = 0;
+        for (BatchResult result : results) {
+            if (!result.isOk()) {
+                System.out.printf("[!] %s: %s%n", result.getName(), result.getError());
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * putall: uploads every regular file directly inside a directory, or every path listed in a
+     * file, with up to parallelism transfers running at once.
+     */
+    private static void doPutAll(String[] args) throws Exception {
+        Path source = Paths.get(args[1]).toAbsolutePath();
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : defaultPort();
+        int parallelism = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_PARALLELISM;
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> listing = Files.list(source)) {
+                listing.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+        } else {
+            for (String line : Files.readAllLines(source)) {
+                if (!line.isBlank()) {
+                    files.add(Paths.get(line.trim()));
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<>();
+        List<CompletableFuture<Long>> transfers = new ArrayList<>();
+        try (AsyncFileClient client = new AsyncFileClient(host, port, binary, parallelism, MAX_IN_FLIGHT_BYTES)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+                transfers.add(client.upload(file, file.getFileName().toString()));
+            }
+            printSummary("Uploaded", names, transfers, start);
+        }
+    }
+
+    /** getall: downloads every name listed in a file, with up to parallelism transfers at once. */
+    private static void doGetAll(String[] args) throws Exception {
+        Path listFile = Paths.get(args[1]);
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : defaultPort();
+        Path outputDir = Paths.get(args.length > 4 ? args[4] : ".").toAbsolutePath();
+        int parallelism = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_PARALLELISM;
+        List<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(listFile)) {
+            if (!line.isBlank()) {
+                names.add(line.trim());
+            }
+        }
+        Files.createDirectories(outputDir);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Long>> transfers = new ArrayList<>();
+        try (AsyncFileClient client = new AsyncFileClient(host, port, binary, parallelism, MAX_IN_FLIGHT_BYTES)) {
+            for (String name : names) {
+                Path target = outputDir.resolve(Paths.get(name).getFileName().toString());
+                // The stat gives the size the byte limit needs before the download starts.
+                transfers.add(client.stat(name)
+                        .thenCompose(stat -> client.download(name, target, stat.getSize())));
+            }
+            printSummary("Downloaded", names, transfers, start);
+        }
+    }
+
+    private static void printSummary(String verb, List<String> names, List<CompletableFuture<Long>> transfers,
+            long start) {
+        long total = 0;
+        int failed = 0;
+        for (int i = 0; i < transfers.size(); i++) {
+            try {
+                total += transfers.get(i).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.out.printf("[!] %s: %s%n", names.get(i), cause.getMessage());
+                failed++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("[+] %s %d file(s), %d failed (%d bytes) in %.2f s, %.1f MB/s%n",
+                verb, transfers.size() - failed, failed, total, seconds, total / seconds / 1e6);
+    }
+
+    private static void doStat(String[] args) throws IOException, NotBoundException {
+        String remoteName = args[1];
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : defaultPort();
+
+        FileStat stat = lookup(host, port).stat(remoteName);
+        System.out.printf("[+] %s%n", stat);
+    }
+
+    private static void doRead(String[] args) throws IOException, NotBoundException {
+        String remoteName = args[1];
+        long offset = Long.parseLong(args[2]);
+        long length = Long.parseLong(args[3]);
+        String host = args.length > 4 ? args[4] : "127.0.0.1";
+        int port = args.length > 5 ? Integer.parseInt(args[5]) : defaultPort();
+
+        FileService service = lookup(host, port);
+        OutputStream out = args.length > 6 ? Files.newOutputStream(Paths.get(args[6])) : System.out;
+        long done = 0;
+        try {
+            while (done < length) {
+                byte[] chunk = service.read(remoteName, offset + done, (int) Math.min(CHUNK_SIZE, length - done));
+                if (chunk.length == 0) {
+                    break; // end of file
+                }
+                out.write(chunk);
+                done += chunk.length;
+            }
+            out.flush();
+        } finally {
+            if (out != System.out) {
+                out.close();
+                System.out.printf("[+] Read %d bytes of %s at offset %d to %s%n", done, remoteName, offset, args[6]);
+            }
+        }
+    }
+
+    private static int defaultPort() {
+        return binary ? 1100 : 1099;
     }
 
     private static FileService lookup(String host, int port) throws NotBoundException, IOException {
+        if (binary) {
+            return new BinaryFileClient(host, port);
+        }
         Registry registry = LocateRegistry.getRegistry(host, port);
         return (FileService) registry.lookup("FileService");
     }
@@ -77,6 +373,16 @@ public class RpcClient {
         System.err.println("Usage:");
         System.err.println("  Upload:   java -cp rpc RpcClient upload <file_path> [remote_name] [host] [port]");
         System.err.println("  Download: java -cp rpc RpcClient download <remote_name> [host] [port] [output_path]");
-        System.err.println("Defaults: host=127.0.0.1, port=1099; output_path defaults to remote name.");
+        System.err.println("  Stat:     java -cp rpc RpcClient stat <remote_name> [host] [port]");
+        System.err.println("  Read:     java -cp rpc RpcClient read <remote_name> <offset> <length> [host] [port]"
+                + " [output_path]");
+        System.err.println("  Put dir:  java -cp rpc RpcClient putdir <dir> [host] [port]");
+        System.err.println("  Get list: java -cp rpc RpcClient getlist <list_file> [host] [port] [output_dir]");
+        System.err.println("  Put all:  java -cp rpc RpcClient putall <dir|list_file> [host] [port] [parallelism]");
+        System.err.println("  Get all:  java -cp rpc RpcClient getall <list_file> [host] [port] [output_dir]"
+                + " [parallelism]");
+        System.err.println("Add --binary to talk to a BinaryRpcServer (default port 1100) instead of RMI.");
+        System.err.println("Defaults: host=127.0.0.1, port=1099; output_path defaults to remote name"
+                + " (standard output for read).");
     }
 }
@@ -2,20 +2,38 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RpcServer {
     public static void main(String[] args) throws Exception {
+        boolean durable = false;
+        long commitWindowMillis = 2;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--durable")) {
+                durable = true;
+            } else if (arg.startsWith("--commit-window-ms=")) {
+                commitWindowMillis = Long.parseLong(arg.substring("--commit-window-ms=".length()));
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[0]);
         String outputDir = args.length > 0 ? args[0] : "received_files_rpc";
         int port = args.length > 1 ? Integer.parseInt(args[1]) : 1099;
 
         Path baseDir = Paths.get(outputDir).toAbsolutePath();
-        FileService service = new FileServiceImpl(baseDir);
+        FileService service = new FileServiceImpl(baseDir, durable, commitWindowMillis);
 
         Registry registry = LocateRegistry.createRegistry(port);
         registry.rebind("FileService", service);
 
         System.out.printf("[+] RPC registry on port %d%n", port);
         System.out.printf("[+] FileService bound, storing files at %s%n", baseDir);
+        if (durable) {
+            System.out.printf("[+] Durable stores, group commit window %d ms%n", commitWindowMillis);
+        }
         System.out.println("[+] Press Ctrl+C to stop");
     }
 }
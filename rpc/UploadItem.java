@@ -0,0 +1,24 @@
+import java.io.Serializable;
+
+/**
+ * One file of a {@link FileService#uploadMany} batch.
+ */
+public final class UploadItem implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final byte[] data;
+
+    public UploadItem(String name, byte[] data) {
+        this.name = name;
+        this.data = data;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}